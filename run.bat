@@ -20,8 +20,12 @@ if %ERRORLEVEL% NEQ 0 (
     exit /b 1
 )
 
-REM Run the application
-java -jar target\wiggly-launcher.jar
+REM Run the application, with the AppCDS archive if one was built (mvn -Pappcds package)
+if exist "target\wiggly-launcher.jsa" (
+    java -XX:SharedArchiveFile=target\wiggly-launcher.jsa --add-modules jdk.incubator.vector -jar target\wiggly-launcher.jar
+) else (
+    java --add-modules jdk.incubator.vector -jar target\wiggly-launcher.jar
+)
 
 if %ERRORLEVEL% NEQ 0 (
     echo.
@@ -0,0 +1,246 @@
+package com.wiggly;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Low-latency mixer for game sound effects and tones
+ * All sounds are mixed in software into one SourceDataLine with a small
+ * buffer. Clips are pre-decoded PCM from the SoundCache, and firing one
+ * is a single lock-free enqueue into a fixed ring, so game threads never
+ * open lines or block.
+ */
+public class AudioEngine {
+    
+    public static final float SAMPLE_RATE = 22050f;
+    public static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+    
+    private static final int CHUNK_FRAMES = 256;         // ~12 ms per mix pass
+    private static final int LINE_BUFFER_CHUNKS = 3;
+    private static final int MAX_VOICES = 16;
+    private static final int QUEUE_SIZE = 64;            // power of two
+    private static final int FULL_GAIN = 256;
+    
+    private static AudioEngine shared;
+    
+    // Play requests: producers claim a sequence by CAS, then publish the clip
+    private final AtomicReferenceArray<short[]> queueClips = new AtomicReferenceArray<>(QUEUE_SIZE);
+    private final int[] queueGains = new int[QUEUE_SIZE];
+    private final AtomicLong queueTail = new AtomicLong();
+    private volatile long queueHead;
+    
+    // Active voices, only touched by the mixer thread
+    private final short[][] voiceClips = new short[MAX_VOICES][];
+    private final int[] voicePositions = new int[MAX_VOICES];
+    private final int[] voiceGains = new int[MAX_VOICES];
+    
+    private final int[] mixBuffer = new int[CHUNK_FRAMES];
+    private final byte[] outBuffer = new byte[CHUNK_FRAMES * 2];
+    
+    private final SourceDataLine line;
+    private final Thread thread;
+    private volatile boolean running;
+    private volatile int masterGain;
+    private volatile boolean stopRequested;
+    
+    private AudioEngine(SourceDataLine line) {
+        this.line = line;
+        this.masterGain = FULL_GAIN;
+        this.running = true;
+        
+        this.thread = new Thread(this::runLoop, "wiggly-audio");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MAX_PRIORITY);
+        this.thread.start();
+    }
+    
+    /**
+     * Returns the launcher-wide engine, or null if no audio device is available
+     */
+    public static synchronized AudioEngine getShared() {
+        if (shared == null) {
+            try {
+                SourceDataLine line = AudioSystem.getSourceDataLine(FORMAT);
+                line.open(FORMAT, CHUNK_FRAMES * 2 * LINE_BUFFER_CHUNKS);
+                line.start();
+                shared = new AudioEngine(line);
+            } catch (LineUnavailableException | IllegalArgumentException e) {
+                System.err.println("Warning: Could not open audio line: " + e.getMessage());
+                return null;
+            }
+        }
+        return shared;
+    }
+    
+    /**
+     * Queues a pre-decoded clip; volume is 0-100 as in MIDP VolumeControl
+     * Returns false if the request queue is full and the sound was dropped
+     */
+    public boolean play(short[] clip, int volume) {
+        if (clip == null || clip.length == 0 || !running) {
+            return false;
+        }
+        
+        long tail;
+        do {
+            tail = queueTail.get();
+            if (tail - queueHead >= QUEUE_SIZE) {
+                return false;
+            }
+        } while (!queueTail.compareAndSet(tail, tail + 1));
+        
+        int slot = (int) (tail & (QUEUE_SIZE - 1));
+        queueGains[slot] = Math.max(0, Math.min(100, volume)) * FULL_GAIN / 100;
+        // The volatile store publishes the gain written above
+        queueClips.set(slot, clip);
+        
+        LockSupport.unpark(thread);
+        return true;
+    }
+    
+    /**
+     * Plays a single tone like MIDP Manager.playTone
+     */
+    public boolean playTone(int note, int durationMs, int volume) {
+        return play(SoundCache.getShared().getTone(note, durationMs), volume);
+    }
+    
+    /**
+     * Plays a ToneControl sequence
+     */
+    public boolean playToneSequence(byte[] sequence, int volume) {
+        return play(SoundCache.getShared().getToneSequence(sequence), volume);
+    }
+    
+    /**
+     * Stops every playing sound
+     */
+    public void stopAll() {
+        // Let the mixer drop voices itself so it stays the only writer
+        stopRequested = true;
+        LockSupport.unpark(thread);
+    }
+    
+    public void setMasterVolume(int volume) {
+        masterGain = Math.max(0, Math.min(100, volume)) * FULL_GAIN / 100;
+    }
+    
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+    
+    private void runLoop() {
+        while (running) {
+            if (stopRequested) {
+                stopRequested = false;
+                drainQueue(true);
+                for (int v = 0; v < MAX_VOICES; v++) {
+                    voiceClips[v] = null;
+                }
+                line.flush();
+                continue;
+            }
+            
+            drainQueue(false);
+            if (!mixChunk(masterGain)) {
+                // Nothing playing: sleep until the next play() call
+                LockSupport.park(this);
+                continue;
+            }
+            // Blocks once the small line buffer is full, which paces the loop
+            line.write(outBuffer, 0, outBuffer.length);
+        }
+        line.drain();
+        line.close();
+    }
+    
+    private void drainQueue(boolean discard) {
+        long head = queueHead;
+        while (head < queueTail.get()) {
+            int slot = (int) (head & (QUEUE_SIZE - 1));
+            short[] clip = queueClips.get(slot);
+            if (clip == null) {
+                // Claimed but not yet published
+                break;
+            }
+            int gain = queueGains[slot];
+            queueClips.set(slot, null);
+            head++;
+            queueHead = head;
+            
+            if (!discard) {
+                startVoice(clip, gain);
+            }
+        }
+    }
+    
+    private void startVoice(short[] clip, int gain) {
+        int target = -1;
+        int mostPlayed = -1;
+        for (int v = 0; v < MAX_VOICES; v++) {
+            if (voiceClips[v] == null) {
+                target = v;
+                break;
+            }
+            // With all voices busy, steal the one closest to finishing
+            int progress = voicePositions[v] * 100 / voiceClips[v].length;
+            if (progress > mostPlayed) {
+                mostPlayed = progress;
+                target = v;
+            }
+        }
+        voiceClips[target] = clip;
+        voicePositions[target] = 0;
+        voiceGains[target] = gain;
+    }
+    
+    private boolean mixChunk(int masterGain) {
+        boolean active = false;
+        Arrays.fill(mixBuffer, 0);
+        
+        for (int v = 0; v < MAX_VOICES; v++) {
+            short[] clip = voiceClips[v];
+            if (clip == null) {
+                continue;
+            }
+            active = true;
+            
+            int pos = voicePositions[v];
+            int count = Math.min(CHUNK_FRAMES, clip.length - pos);
+            int gain = voiceGains[v];
+            for (int i = 0; i < count; i++) {
+                mixBuffer[i] += (clip[pos + i] * gain) >> 8;
+            }
+            
+            pos += count;
+            if (pos >= clip.length) {
+                voiceClips[v] = null;
+            } else {
+                voicePositions[v] = pos;
+            }
+        }
+        
+        if (!active) {
+            return false;
+        }
+        
+        for (int i = 0; i < CHUNK_FRAMES; i++) {
+            int sample = (mixBuffer[i] * masterGain) >> 8;
+            if (sample > Short.MAX_VALUE) {
+                sample = Short.MAX_VALUE;
+            } else if (sample < Short.MIN_VALUE) {
+                sample = Short.MIN_VALUE;
+            }
+            outBuffer[i * 2] = (byte) sample;
+            outBuffer[i * 2 + 1] = (byte) (sample >> 8);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,461 @@
+package com.wiggly;
+
+import javax.swing.*;
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Headless benchmark for a library of game JARs
+ * Every JAR runs in its own headless JVM, several at a time, so GC time
+ * and peak heap belong to one game and a crashing game cannot take the
+ * others down. Each game is painted off-screen as fast as it can render
+ * while a scripted key sequence is fed through a KeyboardMapper.
+ *
+ * Usage: java -cp wiggly-launcher.jar com.wiggly.BenchmarkRunner --dir games
+ *        [--seconds 30] [--parallel N] [--script W:150,S:150] [--profile name]
+ *        [--resolution 240x320] [--report report.csv]
+ */
+public class BenchmarkRunner {
+    
+    private static final String USAGE =
+        "Usage: java -cp wiggly-launcher.jar com.wiggly.BenchmarkRunner --dir <folder> [--seconds N] " +
+        "[--parallel N] [--script KEY:ms,...] [--profile name|file] [--resolution WxH] [--report file.csv]";
+    
+    // Presses the mapped keys for 2, 4, 6, 8 and 5 in turn
+    private static final String DEFAULT_SCRIPT = "W:150,A:150,D:150,X:150,S:100";
+    
+    private static final long START_TIMEOUT_SECONDS = 20;
+    private static final String RESULT_PREFIX = "RESULT\t";
+    private static final String[] COLUMNS = {
+        "jar", "status", "frames", "fps", "p50_ms", "p95_ms", "p99_ms", "max_ms",
+        "gc_ms", "peak_heap_mb", "cpu_percent", "alloc_mb_s", "note"
+    };
+    
+    private int seconds = 30;
+    private int parallel = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private String script = DEFAULT_SCRIPT;
+    private String profile;
+    private int width = GameLauncher.GameOrientation.PORTRAIT_STANDARD.getWidth();
+    private int height = GameLauncher.GameOrientation.PORTRAIT_STANDARD.getHeight();
+    private File directory;
+    private File report;
+    private File singleJar;
+    
+    public static void main(String[] args) {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        try {
+            runner.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        
+        if (runner.singleJar != null) {
+            // Child JVM: benchmark one game and print one result line
+            System.out.println(RESULT_PREFIX + String.join("\t", runner.runSingle(runner.singleJar)));
+            System.exit(0);
+        }
+        System.exit(runner.runAll() ? 0 : 1);
+    }
+    
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException(option + " needs a value");
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--dir" -> directory = new File(value);
+                case "--single" -> singleJar = new File(value);
+                case "--seconds" -> seconds = positive(option, value);
+                case "--parallel" -> parallel = positive(option, value);
+                case "--script" -> script = value;
+                case "--profile" -> profile = value;
+                case "--report" -> report = new File(value);
+                case "--resolution" -> {
+                    String[] parts = value.toLowerCase().split("x");
+                    if (parts.length != 2) {
+                        throw new IllegalArgumentException("Invalid resolution: " + value);
+                    }
+                    width = positive(option, parts[0].trim());
+                    height = positive(option, parts[1].trim());
+                }
+                default -> throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+        if (singleJar == null && (directory == null || !directory.isDirectory())) {
+            throw new IllegalArgumentException("--dir must name a folder of game JARs");
+        }
+        if (profile != null && !KeyProfile.exists(profile)) {
+            throw new IllegalArgumentException("Key profile not found: " + KeyProfile.getFile(profile));
+        }
+        parseScript(script);
+    }
+    
+    private static int positive(String option, String value) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(option + " needs a positive number: " + value);
+    }
+    
+    /**
+     * Parses "KEY:holdMs,..." into alternating key codes and hold times
+     */
+    private static int[] parseScript(String script) {
+        String[] steps = script.split(",");
+        int[] parsed = new int[steps.length * 2];
+        for (int i = 0; i < steps.length; i++) {
+            String[] parts = steps[i].trim().split(":");
+            Integer keyCode = parts[0].isEmpty() ? null : KeyProfile.keyCode(parts[0].trim());
+            if (keyCode == null || parts.length > 2) {
+                throw new IllegalArgumentException("Invalid script step: " + steps[i]);
+            }
+            parsed[i * 2] = keyCode;
+            parsed[i * 2 + 1] = parts.length == 2 ? positive("--script", parts[1].trim()) : 100;
+        }
+        return parsed;
+    }
+    
+    // ---- Parent: fan the library out over child JVMs ----
+    
+    private boolean runAll() {
+        File[] jars = directory.listFiles((dir, name) -> name.toLowerCase().endsWith(".jar"));
+        if (jars == null || jars.length == 0) {
+            System.err.println("No JAR files found in " + directory);
+            return false;
+        }
+        Arrays.sort(jars);
+        System.out.println("Benchmarking " + jars.length + " games, " + seconds + " s each, " + parallel + " at a time");
+        
+        ExecutorService pool = Executors.newFixedThreadPool(parallel);
+        List<Future<String[]>> futures = new ArrayList<>();
+        for (File jar : jars) {
+            futures.add(pool.submit(() -> runChild(jar)));
+        }
+        
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < jars.length; i++) {
+            String[] row;
+            try {
+                row = futures.get(i).get();
+            } catch (Exception e) {
+                row = failure(jars[i], "ERROR", String.valueOf(e.getMessage()));
+            }
+            rows.add(row);
+            System.out.println(String.format("%-28s %-12s %8s fps  p95 %7s ms  gc %6s ms  heap %6s MB  %s",
+                row[0], row[1], row[3], row[5], row[8], row[9], row[12]));
+        }
+        pool.shutdown();
+        
+        long ok = rows.stream().filter(row -> row[1].equals("OK")).count();
+        System.out.println(ok + " of " + rows.size() + " games ran");
+        
+        if (report != null) {
+            try (PrintWriter out = new PrintWriter(report, StandardCharsets.UTF_8)) {
+                out.println(String.join(",", COLUMNS));
+                for (String[] row : rows) {
+                    String[] quoted = new String[row.length];
+                    for (int i = 0; i < row.length; i++) {
+                        quoted[i] = "\"" + row[i].replace("\"", "\"\"") + "\"";
+                    }
+                    out.println(String.join(",", quoted));
+                }
+                System.out.println("Report written to " + report);
+            } catch (IOException e) {
+                System.err.println("Error: Could not write report " + report);
+                e.printStackTrace();
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private String[] runChild(File jar) {
+        String java = ProcessHandle.current().info().command()
+            .orElse(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        List<String> command = new ArrayList<>(List.of(java,
+            "-Djava.awt.headless=true",
+            "-cp", System.getProperty("java.class.path"),
+            BenchmarkRunner.class.getName(),
+            "--single", jar.getAbsolutePath(),
+            "--seconds", Integer.toString(seconds),
+            "--script", script,
+            "--resolution", width + "x" + height));
+        if (profile != null) {
+            command.add("--profile");
+            command.add(KeyProfile.getFile(profile).getAbsolutePath());
+        }
+        
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            return failure(jar, "ERROR", "Could not start JVM: " + e.getMessage());
+        }
+        
+        // Read output on a separate thread so a hung game can still be timed out
+        AtomicReference<String> result = new AtomicReference<>();
+        AtomicReference<String> lastLine = new AtomicReference<>("");
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith(RESULT_PREFIX)) {
+                        result.set(line.substring(RESULT_PREFIX.length()));
+                    } else if (!line.isBlank()) {
+                        lastLine.set(line.trim());
+                    }
+                }
+            } catch (IOException e) {
+                // Process went away; handled by the exit check
+            }
+        }, "wiggly-benchmark-" + jar.getName());
+        reader.setDaemon(true);
+        reader.start();
+        
+        try {
+            if (!process.waitFor(seconds + START_TIMEOUT_SECONDS + 10, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return failure(jar, "TIMEOUT", "Did not finish");
+            }
+            reader.join(1000);
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            return failure(jar, "ERROR", "Interrupted");
+        }
+        
+        String line = result.get();
+        if (line == null) {
+            return failure(jar, "CRASHED", "Exit code " + process.exitValue() + ": " + lastLine.get());
+        }
+        return line.split("\t", -1);
+    }
+    
+    private static String[] failure(File jar, String status, String note) {
+        String[] row = new String[COLUMNS.length];
+        Arrays.fill(row, "");
+        row[0] = jar.getName();
+        row[1] = status;
+        row[COLUMNS.length - 1] = note.replace('\t', ' ').replace('\n', ' ');
+        return row;
+    }
+    
+    // ---- Child: run one game ----
+    
+    private String[] runSingle(File jar) {
+        String mainClass = GameLauncher.findMainClass(jar);
+        if (mainClass == null) {
+            return failure(jar, "FAILED", "No Main-Class in manifest");
+        }
+        
+        GameSession session = new GameSession(jar);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<Exception> startError = new AtomicReference<>();
+        session.start(mainClass, s -> started.countDown(), (s, e) -> {
+            startError.set(e);
+            started.countDown();
+        });
+        
+        try {
+            if (!started.await(START_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                return failure(jar, "TIMEOUT", "Game did not start within " + START_TIMEOUT_SECONDS + " s");
+            }
+        } catch (InterruptedException e) {
+            return failure(jar, "ERROR", "Interrupted");
+        }
+        if (startError.get() != null) {
+            Throwable cause = startError.get();
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            // Applets need a display, so they cannot be measured headless
+            String status = cause instanceof java.awt.HeadlessException ? "UNSUPPORTED" : "FAILED";
+            return failure(jar, status, cause.toString());
+        }
+        Component game = session.getGameComponent();
+        if (game == null) {
+            return failure(jar, "UNSUPPORTED", "Main class is not a Swing panel or applet");
+        }
+        
+        Map<Integer, Integer> mapping = profile != null
+            ? KeyProfile.loadOrDefault(profile, GameLauncher.DEFAULT_KEY_MAPPING)
+            : GameLauncher.DEFAULT_KEY_MAPPING;
+        KeyboardMapper keyMapper = new KeyboardMapper(mapping, game);
+        if (profile != null) {
+            KeyProfile.applyMacros(profile, keyMapper.getMacroEngine());
+        }
+        
+        String[] row = measure(jar, session, game, keyMapper, parseScript(script));
+        keyMapper.setEnabled(false);
+        keyMapper.getRepeatEngine().shutdown();
+        try {
+            SwingUtilities.invokeAndWait(session::close);
+        } catch (Exception e) {
+            // Exiting anyway
+        }
+        return row;
+    }
+    
+    private String[] measure(File jar, GameSession session, Component game, KeyboardMapper keyMapper, int[] steps) {
+        BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = frame.createGraphics();
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                session.getSurface().setSize(width, height);
+                session.getSurface().doLayout();
+                game.setSize(width, height);
+            });
+        } catch (Exception e) {
+            return failure(jar, "FAILED", "Layout: " + e);
+        }
+        
+        // Baselines taken after startup, so loading does not count as play
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long gcStart = gcMillis();
+        GameMonitor.Account account = session.getAccount();
+        long cpuStart = account.getCpuNanos();
+        long allocatedStart = account.getAllocatedBytes();
+        
+        Thread input = new Thread(() -> playScript(keyMapper, steps), "wiggly-benchmark-input");
+        input.setDaemon(true);
+        input.start();
+        
+        long[] frameNanos = new long[4096];
+        int frames = 0;
+        AtomicReference<Throwable> paintError = new AtomicReference<>();
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end && paintError.get() == null) {
+            long[] elapsed = new long[1];
+            try {
+                SwingUtilities.invokeAndWait(() -> {
+                    long t0 = System.nanoTime();
+                    try {
+                        game.paint(g);
+                    } catch (Throwable t) {
+                        paintError.set(t);
+                    }
+                    elapsed[0] = System.nanoTime() - t0;
+                });
+            } catch (Exception e) {
+                paintError.set(e);
+            }
+            if (frames == frameNanos.length) {
+                frameNanos = Arrays.copyOf(frameNanos, frames * 2);
+            }
+            frameNanos[frames++] = elapsed[0];
+        }
+        long wallNanos = System.nanoTime() - start;
+        input.interrupt();
+        g.dispose();
+        
+        // The monitor samples every 100 ms; wait for one more sample before reading it
+        try {
+            Thread.sleep(150);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long cpuNanos = account.getCpuNanos() - cpuStart;
+        long allocatedBytes = account.getAllocatedBytes() - allocatedStart;
+        
+        long[] sorted = Arrays.copyOf(frameNanos, frames);
+        Arrays.sort(sorted);
+        String status = paintError.get() == null ? "OK" : "PAINT_ERROR";
+        String note = paintError.get() == null ? "" : paintError.get().toString().replace('\t', ' ').replace('\n', ' ');
+        double wallSeconds = wallNanos / 1e9;
+        return new String[]{
+            jar.getName(),
+            status,
+            Integer.toString(frames),
+            String.format("%.1f", frames / wallSeconds),
+            millis(percentile(sorted, 50)),
+            millis(percentile(sorted, 95)),
+            millis(percentile(sorted, 99)),
+            millis(frames > 0 ? sorted[frames - 1] : 0),
+            Long.toString(gcMillis() - gcStart),
+            String.format("%.1f", peakHeapBytes() / (1024.0 * 1024.0)),
+            String.format("%.0f", cpuNanos * 100.0 / wallNanos),
+            String.format("%.2f", allocatedBytes / (1024.0 * 1024.0) / wallSeconds),
+            note
+        };
+    }
+    
+    private static void playScript(KeyboardMapper keyMapper, int[] steps) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                for (int i = 0; i < steps.length; i += 2) {
+                    // Same path as a real key press: the mapper translates it and delivers the T9 key
+                    keyMapper.injectKey(steps[i], true);
+                    Thread.sleep(steps[i + 1]);
+                    keyMapper.injectKey(steps[i], false);
+                    Thread.sleep(steps[i + 1] / 2);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Benchmark finished
+        }
+    }
+    
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+    
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+    
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+    
+    private static long peakHeapBytes() {
+        long total = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                total += pool.getPeakUsage().getUsed();
+            }
+        }
+        return total;
+    }
+}
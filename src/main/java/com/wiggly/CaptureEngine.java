@@ -0,0 +1,532 @@
+package com.wiggly;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.swing.JLayer;
+import javax.swing.Timer;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Screenshot and gameplay capture
+ * Frames are copied on the event thread into a small pool of reusable
+ * buffers and handed to an encoder thread, which the pool bounds. When
+ * the encoder falls behind, new frames are dropped instead of waiting,
+ * so capture never holds up the game. A game shown through a display
+ * filter is recorded from the filter's last frame rather than painted
+ * again, and only when that frame changed. Recordings roll over to a new
+ * part before a file outgrows what AVI 1.0 readers handle.
+ */
+public class CaptureEngine {
+    
+    // Overrides the directory screenshots and recordings are written to
+    public static final String DIR_PROPERTY = "wiggly.capture.dir";
+    
+    public static final int DEFAULT_FPS = 30;
+    
+    private static final int POOL_SIZE = 6;
+    private static final float JPEG_QUALITY = 0.85f;
+    
+    // AVI 1.0 readers commonly stop at 1 GiB, well inside what the 32-bit offsets allow
+    private static final long MAX_AVI_BYTES = 1L << 30;
+    
+    private static final int KIND_SCREENSHOT = 0;
+    private static final int KIND_VIDEO = 1;
+    private static final int KIND_START = 2;
+    private static final int KIND_END = 3;
+    
+    private static CaptureEngine shared;
+    
+    private final File directory;
+    // Unbounded so control messages never wait; frames are bounded by the pool
+    private final BlockingQueue<Frame> queue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Frame> free = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong pendingSkips = new AtomicLong();
+    private final Thread encoder;
+    private int allocated;
+    
+    // Recording state, only touched on the event thread
+    private Timer recordTimer;
+    private Component recordSource;
+    private DisplayFilter recordFilter;
+    private int recordedSerial;
+    private File recordFile;
+    
+    /**
+     * A pooled frame buffer, or a control message for the encoder
+     */
+    private static final class Frame {
+        final BufferedImage image;
+        int kind;
+        File file;
+        int fps;
+        
+        Frame(BufferedImage image, int kind) {
+            this.image = image;
+            this.kind = kind;
+        }
+    }
+    
+    public CaptureEngine(File directory) {
+        this.directory = directory;
+        this.encoder = new Thread(this::runLoop, "wiggly-capture");
+        this.encoder.setDaemon(true);
+        this.encoder.setPriority(Thread.MIN_PRIORITY);
+        this.encoder.start();
+    }
+    
+    public static synchronized CaptureEngine getShared() {
+        if (shared == null) {
+            String dir = System.getProperty(DIR_PROPERTY);
+            shared = new CaptureEngine(dir != null && !dir.isEmpty()
+                ? new File(dir)
+                : new File(System.getProperty("user.home"), ".wiggly" + File.separator + "captures"));
+        }
+        return shared;
+    }
+    
+    /**
+     * Saves the component's current frame as a PNG; call on the event thread
+     * Returns the file being written, or null if the frame had to be dropped
+     */
+    public File screenshot(Component source) {
+        Frame frame = grab(source, KIND_SCREENSHOT);
+        if (frame == null) {
+            return null;
+        }
+        frame.file = newFile("png");
+        File file = frame.file;
+        if (!queue.offer(frame)) {
+            release(frame);
+            return null;
+        }
+        return file;
+    }
+    
+    /**
+     * Starts recording the component to a Motion-JPEG AVI; call on the event thread
+     */
+    public File startRecording(Component source, int fps) {
+        stopRecording();
+        
+        Frame start = new Frame(null, KIND_START);
+        start.file = newFile("avi");
+        start.fps = fps;
+        if (!enqueueControl(start)) {
+            return null;
+        }
+        
+        droppedFrames.set(0);
+        pendingSkips.set(0);
+        recordSource = source;
+        recordFilter = filterOf(source);
+        if (recordFilter != null) {
+            recordFilter.setCapturing(true);
+            recordedSerial = recordFilter.getFrameSerial() - 1;
+        }
+        recordFile = start.file;
+        recordTimer = new Timer(1000 / fps, e -> captureVideoFrame());
+        recordTimer.setCoalesce(true);
+        recordTimer.start();
+        return recordFile;
+    }
+    
+    /**
+     * Stops recording; the encoder finishes the file in the background
+     */
+    public File stopRecording() {
+        if (recordTimer == null) {
+            return null;
+        }
+        recordTimer.stop();
+        recordTimer = null;
+        recordSource = null;
+        if (recordFilter != null) {
+            recordFilter.setCapturing(false);
+            recordFilter = null;
+        }
+        enqueueControl(new Frame(null, KIND_END));
+        
+        File file = recordFile;
+        recordFile = null;
+        return file;
+    }
+    
+    public boolean isRecording() {
+        return recordTimer != null;
+    }
+    
+    /**
+     * Frames dropped in the current or most recent recording
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+    
+    /**
+     * Finishes any recording and waits briefly for pending frames to be written
+     */
+    public void shutdown() {
+        stopRecording();
+        enqueueControl(null);
+        try {
+            encoder.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void captureVideoFrame() {
+        if (recordSource == null || !recordSource.isShowing()) {
+            return;
+        }
+        Frame frame;
+        if (recordFilter != null) {
+            int serial = recordFilter.getFrameSerial();
+            if (serial == recordedSerial) {
+                // Nothing new was drawn; the encoder repeats the previous frame
+                pendingSkips.incrementAndGet();
+                return;
+            }
+            frame = copy(recordFilter);
+            if (frame == null && recordFilter.getFrameSize() == null) {
+                // No frame drawn yet
+                return;
+            }
+            recordedSerial = serial;
+        } else {
+            frame = grab(recordSource, KIND_VIDEO);
+        }
+        if (frame == null || !queue.offer(frame)) {
+            if (frame != null) {
+                release(frame);
+            }
+            // Keep the video's timing by repeating the previous frame there
+            droppedFrames.incrementAndGet();
+            pendingSkips.incrementAndGet();
+        }
+    }
+    
+    private Frame grab(Component source, int kind) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        Frame frame = acquire(width, height, kind);
+        if (frame == null) {
+            return null;
+        }
+        Graphics2D g = frame.image.createGraphics();
+        try {
+            source.paint(g);
+        } finally {
+            g.dispose();
+        }
+        return frame;
+    }
+    
+    private Frame copy(DisplayFilter filter) {
+        Dimension size = filter.getFrameSize();
+        if (size == null) {
+            return null;
+        }
+        Frame frame = acquire(size.width, size.height, KIND_VIDEO);
+        if (frame != null && !filter.copyFrame(frame.image)) {
+            release(frame);
+            return null;
+        }
+        return frame;
+    }
+    
+    /**
+     * The display filter a game component is shown through, if any
+     */
+    private static DisplayFilter filterOf(Component source) {
+        if (source.getParent() instanceof JLayer) {
+            Object ui = ((JLayer<?>) source.getParent()).getUI();
+            if (ui instanceof DisplayFilter) {
+                return (DisplayFilter) ui;
+            }
+        }
+        return null;
+    }
+    
+    private synchronized Frame acquire(int width, int height, int kind) {
+        Frame frame = free.poll();
+        if (frame != null && (frame.image.getWidth() != width || frame.image.getHeight() != height)) {
+            // Resolution changed; let old-sized buffers go
+            allocated--;
+            frame = null;
+        }
+        if (frame == null) {
+            if (allocated >= POOL_SIZE) {
+                return null;
+            }
+            allocated++;
+            frame = new Frame(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), kind);
+        }
+        frame.kind = kind;
+        frame.file = null;
+        return frame;
+    }
+    
+    private void release(Frame frame) {
+        if (frame.image != null) {
+            free.offer(frame);
+        }
+    }
+    
+    private boolean enqueueControl(Frame control) {
+        // Never blocks the event thread, and control messages are never dropped
+        return queue.offer(control != null ? control : new Frame(null, -1));
+    }
+    
+    private File newFile(String extension) {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        return new File(directory, "wiggly-" + stamp + "." + extension);
+    }
+    
+    private void runLoop() {
+        AviWriter video = null;
+        File videoFile = null;
+        int videoPart = 1;
+        ImageWriter jpegWriter = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam jpegParam = jpegWriter.getDefaultWriteParam();
+        jpegParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        jpegParam.setCompressionQuality(JPEG_QUALITY);
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        
+        while (true) {
+            Frame frame;
+            try {
+                frame = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            
+            try {
+                switch (frame.kind) {
+                    case KIND_SCREENSHOT -> {
+                        ensureDirectory();
+                        ImageIO.write(frame.image, "png", frame.file);
+                    }
+                    case KIND_START -> {
+                        ensureDirectory();
+                        if (video != null) {
+                            // Cleared first so a failed open below leaves no closed writer behind
+                            AviWriter previous = video;
+                            video = null;
+                            previous.close();
+                        }
+                        video = new AviWriter(frame.file, frame.fps);
+                        videoFile = frame.file;
+                        videoPart = 1;
+                    }
+                    case KIND_VIDEO -> {
+                        if (video != null) {
+                            long repeats = pendingSkips.getAndSet(0);
+                            jpeg.reset();
+                            try (ImageOutputStream out = ImageIO.createImageOutputStream(jpeg)) {
+                                jpegWriter.setOutput(out);
+                                jpegWriter.write(null, new IIOImage(frame.image, null, null), jpegParam);
+                            }
+                            byte[] data = jpeg.toByteArray();
+                            if (!video.hasRoomFor(repeats, data.length)) {
+                                // Continue in the next part; the repeats belonged to the old one
+                                AviWriter full = video;
+                                video = null;
+                                full.close();
+                                videoPart++;
+                                video = new AviWriter(partFile(videoFile, videoPart), full.fps);
+                                repeats = 0;
+                            }
+                            video.writeRepeats(repeats);
+                            video.writeFrame(frame.image.getWidth(), frame.image.getHeight(), data);
+                        }
+                    }
+                    case KIND_END -> {
+                        if (video != null) {
+                            video.close();
+                            video = null;
+                        }
+                    }
+                    default -> {
+                        if (video != null) {
+                            video.close();
+                        }
+                        jpegWriter.dispose();
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing capture: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                release(frame);
+            }
+        }
+    }
+    
+    /**
+     * Later parts of a recording: "name.avi" continues in "name-2.avi" and so on
+     */
+    private static File partFile(File first, int part) {
+        String name = first.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(first.getParentFile(), name.substring(0, dot) + "-" + part + name.substring(dot));
+    }
+    
+    private void ensureDirectory() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create capture directory " + directory);
+        }
+    }
+    
+    /**
+     * Minimal Motion-JPEG AVI (RIFF) writer
+     * Sizes and the frame count are patched in when the file is closed.
+     */
+    private static final class AviWriter {
+        private static final int HEADER_BYTES = 224;
+        private static final int MOVI_START = 220;     // offset of the "movi" fourcc
+        
+        private final RandomAccessFile file;
+        private final int fps;
+        private int width;
+        private int height;
+        private int frames;
+        private int maxChunk;
+        private int[] indexOffsets = new int[1024];
+        private int[] indexSizes = new int[1024];
+        private byte[] lastFrame;
+        private final ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        
+        AviWriter(File target, int fps) throws IOException {
+            this.file = new RandomAccessFile(target, "rw");
+            this.file.setLength(0);
+            this.fps = fps;
+            this.file.write(new byte[HEADER_BYTES]);
+        }
+        
+        void writeFrame(int frameWidth, int frameHeight, byte[] jpeg) throws IOException {
+            if (frames == 0) {
+                width = frameWidth;
+                height = frameHeight;
+            }
+            writeChunk(jpeg);
+            lastFrame = jpeg;
+        }
+        
+        /**
+         * Whether repeats of the previous frame and one new frame still fit,
+         * index included, under the AVI 1.0 size limit
+         */
+        boolean hasRoomFor(long repeats, int length) throws IOException {
+            long repeated = lastFrame != null ? repeats : 0;
+            long size = file.getFilePointer()
+                + repeated * chunkBytes(lastFrame != null ? lastFrame.length : 0)
+                + chunkBytes(length)
+                + 8 + (frames + repeated + 1) * 16;
+            return size <= MAX_AVI_BYTES || frames == 0;
+        }
+        
+        private static long chunkBytes(int length) {
+            return 8 + length + (length & 1);
+        }
+        
+        void writeRepeats(long count) throws IOException {
+            // Re-store the previous frame so the video keeps real-time pacing
+            for (long i = 0; i < count && lastFrame != null; i++) {
+                writeChunk(lastFrame);
+            }
+        }
+        
+        private void writeChunk(byte[] data) throws IOException {
+            if (frames == indexOffsets.length) {
+                indexOffsets = Arrays.copyOf(indexOffsets, frames * 2);
+                indexSizes = Arrays.copyOf(indexSizes, frames * 2);
+            }
+            indexOffsets[frames] = (int) (file.getFilePointer() - MOVI_START);
+            indexSizes[frames] = data.length;
+            frames++;
+            maxChunk = Math.max(maxChunk, data.length);
+            
+            chunkHeader.clear();
+            chunkHeader.put(fourcc("00dc")).putInt(data.length);
+            file.write(chunkHeader.array());
+            file.write(data);
+            if ((data.length & 1) != 0) {
+                file.write(0);
+            }
+        }
+        
+        void close() throws IOException {
+            try {
+                long moviEnd = file.getFilePointer();
+                
+                ByteBuffer index = ByteBuffer.allocate(8 + frames * 16).order(ByteOrder.LITTLE_ENDIAN);
+                index.put(fourcc("idx1")).putInt(frames * 16);
+                for (int i = 0; i < frames; i++) {
+                    index.put(fourcc("00dc")).putInt(0x10).putInt(indexOffsets[i]).putInt(indexSizes[i]);
+                }
+                file.write(index.array());
+                long end = file.getFilePointer();
+                
+                file.seek(0);
+                file.write(header((int) end, (int) (moviEnd - MOVI_START)).array());
+            } finally {
+                file.close();
+            }
+        }
+        
+        private ByteBuffer header(int fileSize, int moviSize) {
+            ByteBuffer b = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            b.put(fourcc("RIFF")).putInt(fileSize - 8).put(fourcc("AVI "));
+            b.put(fourcc("LIST")).putInt(192).put(fourcc("hdrl"));
+            
+            // Main header
+            b.put(fourcc("avih")).putInt(56);
+            b.putInt(1_000_000 / fps).putInt(maxChunk * fps).putInt(0).putInt(0x10);
+            b.putInt(frames).putInt(0).putInt(1).putInt(maxChunk);
+            b.putInt(width).putInt(height).putInt(0).putInt(0).putInt(0).putInt(0);
+            
+            // Video stream header and format
+            b.put(fourcc("LIST")).putInt(116).put(fourcc("strl"));
+            b.put(fourcc("strh")).putInt(56);
+            b.put(fourcc("vids")).put(fourcc("MJPG")).putInt(0).putShort((short) 0).putShort((short) 0);
+            b.putInt(0).putInt(1).putInt(fps).putInt(0).putInt(frames).putInt(maxChunk).putInt(-1).putInt(0);
+            b.putShort((short) 0).putShort((short) 0).putShort((short) width).putShort((short) height);
+            b.put(fourcc("strf")).putInt(40);
+            b.putInt(40).putInt(width).putInt(height).putShort((short) 1).putShort((short) 24);
+            b.put(fourcc("MJPG")).putInt(width * height * 3).putInt(0).putInt(0).putInt(0).putInt(0);
+            
+            b.put(fourcc("LIST")).putInt(moviSize).put(fourcc("movi"));
+            return b;
+        }
+        
+        private static byte[] fourcc(String code) {
+            return code.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+}
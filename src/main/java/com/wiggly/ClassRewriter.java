@@ -0,0 +1,464 @@
+package com.wiggly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Load-time rewriter that points game time calls at the VirtualClock
+ * Redirects System.currentTimeMillis/nanoTime, Thread.sleep and
+ * Object.wait(timeout), swaps java.util.Timer and TimerTask for the
+ * GameTimer and GameTimerTask subclasses run by the GameScheduler, and
+ * java.lang.Thread for GameThread, which keeps game threads in the
+ * game's thread group even when created on the event thread. Image loads
+ * by URL through ImageIO and the Toolkit and applet audio clips go to
+ * GameResources, and text drawn with Graphics.drawString to the
+ * GlyphAtlas. Only
+ * call sites change: new constant pool entries are appended and
+ * instructions are patched in place, so code size, offsets and stack
+ * maps stay valid. Results are cached on disk by
+ * class hash so each class is only transformed once, and in memory by
+ * JAR hash so sessions running the same game share the rewritten bytes.
+ */
+public class ClassRewriter {
+    
+    // Bump when the transform changes so stale cache entries are ignored
+    private static final int VERSION = 6;
+    
+    public static final String CACHE_DIR_PROPERTY = "wiggly.classcache.dir";
+    public static final String ENABLED_PROPERTY = "wiggly.virtualclock";
+    
+    private static final long MEMORY_BUDGET = 16L * 1024 * 1024;
+    
+    private static final String CLOCK_CLASS = "com/wiggly/VirtualClock";
+    private static final String TIMER_CLASS = "java/util/Timer";
+    private static final String TIMER_TASK_CLASS = "java/util/TimerTask";
+    private static final String GAME_TIMER_CLASS = "com/wiggly/GameTimer";
+    private static final String GAME_TIMER_TASK_CLASS = "com/wiggly/GameTimerTask";
+    private static final String THREAD_CLASS = "java/lang/Thread";
+    private static final String GAME_THREAD_CLASS = "com/wiggly/GameThread";
+    private static final String RESOURCES_CLASS = "com/wiggly/GameResources";
+    private static final String APPLET_CLASS = "java/applet/Applet";
+    private static final String JAPPLET_CLASS = "javax/swing/JApplet";
+    private static final String GLYPH_ATLAS_CLASS = "com/wiggly/GlyphAtlas";
+    
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    
+    private static final int OP_INVOKEVIRTUAL = 0xB6;
+    private static final int OP_INVOKESPECIAL = 0xB7;
+    private static final int OP_INVOKESTATIC = 0xB8;
+    private static final int OP_NEW = 0xBB;
+    
+    private static final ClassRewriter SHARED = new ClassRewriter(cacheDirFromProperty());
+    
+    private final File cacheDir;
+    private final Map<String, byte[]> loaded;
+    private long loadedBytes;
+    
+    public ClassRewriter(File cacheDir) {
+        this.cacheDir = cacheDir;
+        this.loaded = new LinkedHashMap<>(256, 0.75f, true);
+    }
+    
+    public static ClassRewriter getShared() {
+        return SHARED;
+    }
+    
+    public static boolean isEnabled() {
+        return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+    }
+    
+    /**
+     * Returns the rewritten bytes of a class file inside a game JAR
+     */
+    public byte[] loadClass(String jarHash, String path, ImageCache.ResourceSource source) throws IOException {
+        String key = jarHash + ":" + path;
+        synchronized (this) {
+            byte[] cached = loaded.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        
+        byte[] classBytes;
+        try (InputStream in = source.open(path)) {
+            if (in == null) {
+                throw new IOException("Class not found: " + path);
+            }
+            classBytes = in.readAllBytes();
+        }
+        byte[] result = rewrite(classBytes);
+        
+        synchronized (this) {
+            byte[] existing = loaded.putIfAbsent(key, result);
+            if (existing != null) {
+                return existing;
+            }
+            loadedBytes += result.length;
+            Iterator<byte[]> it = loaded.values().iterator();
+            while (loadedBytes > MEMORY_BUDGET && it.hasNext()) {
+                loadedBytes -= it.next().length;
+                it.remove();
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the rewritten class, from the disk cache when possible
+     */
+    public byte[] rewrite(byte[] classBytes) {
+        File cached = null;
+        if (cacheDir != null) {
+            cached = new File(cacheDir, ImageCache.sha256(classBytes) + "-v" + VERSION + ".class");
+            if (cached.isFile()) {
+                try {
+                    return Files.readAllBytes(cached.toPath());
+                } catch (IOException e) {
+                    System.err.println("Warning: Could not read cached class " + cached + ": " + e.getMessage());
+                }
+            }
+        }
+        
+        byte[] result;
+        try {
+            result = transform(classBytes);
+        } catch (RuntimeException e) {
+            // Never fail a game because of the rewriter; run it unmodified instead
+            System.err.println("Warning: Could not rewrite class, loading it unchanged: " + e);
+            return classBytes;
+        }
+        
+        if (cached != null) {
+            try {
+                Files.createDirectories(cacheDir.toPath());
+                File temp = new File(cacheDir, cached.getName() + ".tmp");
+                Files.write(temp.toPath(), result);
+                Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Warning: Could not cache class " + cached + ": " + e.getMessage());
+            }
+        }
+        return result;
+    }
+    
+    static byte[] transform(byte[] b) {
+        ClassReader in = new ClassReader(b);
+        if (in.u4(0) != 0xCAFEBABE) {
+            throw new IllegalArgumentException("Not a class file");
+        }
+        
+        // Index the constant pool
+        int count = in.u2(8);
+        int[] tags = new int[count];
+        int[] offsets = new int[count];
+        int pos = 10;
+        for (int i = 1; i < count; i++) {
+            tags[i] = in.u1(pos);
+            offsets[i] = pos + 1;
+            pos += 1 + entrySize(in, tags[i], pos + 1);
+            if (tags[i] == CONSTANT_LONG || tags[i] == CONSTANT_DOUBLE) {
+                i++;
+            }
+        }
+        int poolEnd = pos;
+        int superIndex = in.u2(poolEnd + 4);
+        String superName = superIndex == 0 ? "" : in.utf8(offsets, in.u2(offsets[superIndex]));
+        // Timer subclasses keep their own thread; TimerTask subclasses move onto GameTimerTask
+        boolean timerSubclass = superName.equals(TIMER_CLASS);
+        boolean taskSubclass = superName.equals(TIMER_TASK_CLASS);
+        boolean threadSubclass = superName.equals(THREAD_CLASS);
+        // Unqualified applet calls in a game's applet class name the class itself as owner
+        String thisName = in.utf8(offsets, in.u2(offsets[in.u2(poolEnd + 2)]));
+        boolean appletSubclass = superName.equals(APPLET_CLASS) || superName.equals(JAPPLET_CLASS);
+        
+        // Decide which class and method refs to redirect
+        ConstantPoolAppender pool = new ConstantPoolAppender(count);
+        Redirects redirects = new Redirects();
+        for (int i = 1; i < count; i++) {
+            if (tags[i] == CONSTANT_CLASS && !timerSubclass
+                    && in.utf8(offsets, in.u2(offsets[i])).equals(TIMER_CLASS)) {
+                redirects.news.put(i, pool.classref(GAME_TIMER_CLASS));
+            }
+            if (tags[i] == CONSTANT_CLASS && in.utf8(offsets, in.u2(offsets[i])).equals(THREAD_CLASS)) {
+                redirects.news.put(i, pool.classref(GAME_THREAD_CLASS));
+            }
+            if (tags[i] != CONSTANT_METHODREF) {
+                continue;
+            }
+            String owner = in.utf8(offsets, in.u2(offsets[in.u2(offsets[i])]));
+            int nat = in.u2(offsets[i] + 2);
+            String name = in.utf8(offsets, in.u2(offsets[nat]));
+            String desc = in.utf8(offsets, in.u2(offsets[nat] + 2));
+            
+            if (owner.equals("java/lang/System") && (name.equals("currentTimeMillis") || name.equals("nanoTime")) && desc.equals("()J")
+                    || owner.equals("java/lang/Thread") && name.equals("sleep") && (desc.equals("(J)V") || desc.equals("(JI)V"))) {
+                redirects.statics.put(i, pool.methodref(CLOCK_CLASS, name, desc));
+            } else if (owner.equals("javax/imageio/ImageIO") && name.equals("read")
+                    && desc.equals("(Ljava/net/URL;)Ljava/awt/image/BufferedImage;")) {
+                redirects.statics.put(i, pool.methodref(RESOURCES_CLASS, name, desc));
+            } else if (owner.equals("java/awt/Toolkit") && (name.equals("getImage") || name.equals("createImage"))
+                    && desc.equals("(Ljava/net/URL;)Ljava/awt/Image;")) {
+                redirects.virtuals.put(i, pool.methodref(RESOURCES_CLASS, name, "(Ljava/awt/Toolkit;" + desc.substring(1)));
+            } else if ((owner.equals("java/awt/Graphics") || owner.equals("java/awt/Graphics2D")) && name.equals("drawString")
+                    && desc.equals("(Ljava/lang/String;II)V")) {
+                redirects.virtuals.put(i, pool.methodref(GLYPH_ATLAS_CLASS, name, "(Ljava/awt/Graphics;" + desc.substring(1)));
+            } else if ((owner.equals(APPLET_CLASS) || owner.equals(JAPPLET_CLASS) || appletSubclass && owner.equals(thisName))
+                    && name.equals("newAudioClip")) {
+                redirects.statics.put(i, pool.methodref(RESOURCES_CLASS, name, desc));
+            } else if ((owner.equals(APPLET_CLASS) || owner.equals(JAPPLET_CLASS) || appletSubclass && owner.equals(thisName))
+                    && name.equals("getAudioClip")) {
+                redirects.virtuals.put(i, pool.methodref(RESOURCES_CLASS, name, "(Ljava/applet/Applet;" + desc.substring(1)));
+            } else if (name.equals("wait") && (desc.equals("(J)V") || desc.equals("(JI)V"))) {
+                // Object.wait is final, so any wait(long) ref is the monitor wait
+                redirects.virtuals.put(i, pool.methodref(CLOCK_CLASS, name, "(Ljava/lang/Object;" + desc.substring(1)));
+            } else if (owner.equals(TIMER_CLASS) && name.equals("<init>") && !timerSubclass) {
+                // Paired with the NEW redirect above
+                redirects.specials.put(i, pool.methodref(GAME_TIMER_CLASS, name, desc));
+            } else if (owner.equals(TIMER_TASK_CLASS) && taskSubclass) {
+                // Constructor and super calls go to the new superclass
+                redirects.specials.put(i, pool.methodref(GAME_TIMER_TASK_CLASS, name, desc));
+            } else if (owner.equals(THREAD_CLASS) && (name.equals("<init>") || threadSubclass)) {
+                // New threads and, in Thread subclasses, super calls go to GameThread
+                redirects.specials.put(i, pool.methodref(GAME_THREAD_CLASS, name, desc));
+            }
+        }
+        int newSuperIndex = taskSubclass ? pool.classref(GAME_TIMER_TASK_CLASS)
+            : threadSubclass ? pool.classref(GAME_THREAD_CLASS) : superIndex;
+        if (redirects.isEmpty() && newSuperIndex == superIndex) {
+            return b;
+        }
+        if (pool.nextIndex > 0xFFFF) {
+            throw new IllegalArgumentException("Constant pool overflow");
+        }
+        
+        // Patch call sites in a copy, then splice in the new pool entries
+        byte[] patched = b.clone();
+        patched[poolEnd + 4] = (byte) (newSuperIndex >> 8);
+        patched[poolEnd + 5] = (byte) newSuperIndex;
+        pos = poolEnd + 6;
+        pos += 2 + in.u2(pos) * 2;                       // interfaces
+        pos = skipMembers(in, pos, offsets, null, null);    // fields
+        skipMembers(in, pos, offsets, patched, redirects);
+        
+        byte[] appended = pool.toByteArray();
+        byte[] out = new byte[b.length + appended.length];
+        System.arraycopy(patched, 0, out, 0, poolEnd);
+        System.arraycopy(appended, 0, out, poolEnd, appended.length);
+        System.arraycopy(patched, poolEnd, out, poolEnd + appended.length, b.length - poolEnd);
+        out[8] = (byte) (pool.nextIndex >> 8);
+        out[9] = (byte) pool.nextIndex;
+        return out;
+    }
+    
+    private static int skipMembers(ClassReader in, int pos, int[] offsets, byte[] patched, Redirects redirects) {
+        int members = in.u2(pos);
+        pos += 2;
+        for (int m = 0; m < members; m++) {
+            int attributes = in.u2(pos + 6);
+            pos += 8;
+            for (int a = 0; a < attributes; a++) {
+                String attrName = in.utf8(offsets, in.u2(pos));
+                int length = in.u4(pos + 2);
+                if (patched != null && attrName.equals("Code")) {
+                    int codeLength = in.u4(pos + 10);
+                    patchCode(in, pos + 14, codeLength, patched, redirects);
+                }
+                pos += 6 + length;
+            }
+        }
+        return pos;
+    }
+    
+    private static void patchCode(ClassReader in, int start, int length, byte[] patched, Redirects redirects) {
+        int pc = 0;
+        while (pc < length) {
+            int at = start + pc;
+            int op = in.u1(at);
+            Integer target = redirects.target(op, in, at);
+            if (target != null) {
+                if (op == OP_INVOKEVIRTUAL) {
+                    // obj.wait(t) and VirtualClock.wait(obj, t) take the same stack
+                    patched[at] = (byte) OP_INVOKESTATIC;
+                }
+                patched[at + 1] = (byte) (target >> 8);
+                patched[at + 2] = (byte) (int) target;
+            }
+            pc += instructionLength(in, start, pc, op);
+        }
+    }
+    
+    private static int instructionLength(ClassReader in, int start, int pc, int op) {
+        switch (op) {
+            case 0x10, 0x12, 0x15, 0x16, 0x17, 0x18, 0x19,
+                 0x36, 0x37, 0x38, 0x39, 0x3A, 0xA9, 0xBC:
+                return 2;
+            case 0x11, 0x13, 0x14, 0x84, 0xB2, 0xB3, 0xB4, 0xB5, 0xB6, 0xB7, 0xB8,
+                 0xBB, 0xBD, 0xC0, 0xC1, 0xC6, 0xC7:
+                return 3;
+            case 0xC5:
+                return 4;
+            case 0xB9, 0xBA, 0xC8, 0xC9:
+                return 5;
+            case 0xC4: // wide
+                return in.u1(start + pc + 1) == 0x84 ? 6 : 4;
+            case 0xAA: { // tableswitch
+                int p = (pc + 4) & ~3;
+                int low = in.u4(start + p + 4);
+                int high = in.u4(start + p + 8);
+                return p - pc + 12 + (high - low + 1) * 4;
+            }
+            case 0xAB: { // lookupswitch
+                int p = (pc + 4) & ~3;
+                int pairs = in.u4(start + p + 4);
+                return p - pc + 8 + pairs * 8;
+            }
+            default:
+                if (op >= 0x99 && op <= 0xA8) {
+                    return 3; // branches
+                }
+                return 1;
+        }
+    }
+    
+    private static int entrySize(ClassReader in, int tag, int pos) {
+        return switch (tag) {
+            case CONSTANT_UTF8 -> 2 + in.u2(pos);
+            case 3, 4, 9, 10, 11, 12, 17, 18 -> 4;
+            case CONSTANT_LONG, CONSTANT_DOUBLE -> 8;
+            case CONSTANT_CLASS, 8, 16, 19, 20 -> 2;
+            case 15 -> 3;
+            default -> throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+        };
+    }
+    
+    private static File cacheDirFromProperty() {
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if (dir != null) {
+            return dir.isEmpty() ? null : new File(dir);
+        }
+        return new File(System.getProperty("user.home"), ".wiggly" + File.separator + "class-cache");
+    }
+    
+    /**
+     * Replacement constant pool indices, by the instruction that uses them
+     */
+    private static final class Redirects {
+        final Map<Integer, Integer> statics = new HashMap<>();
+        final Map<Integer, Integer> virtuals = new HashMap<>();
+        final Map<Integer, Integer> specials = new HashMap<>();
+        final Map<Integer, Integer> news = new HashMap<>();
+        
+        boolean isEmpty() {
+            return statics.isEmpty() && virtuals.isEmpty() && specials.isEmpty() && news.isEmpty();
+        }
+        
+        Integer target(int op, ClassReader in, int at) {
+            Map<Integer, Integer> map = switch (op) {
+                case OP_INVOKESTATIC -> statics;
+                case OP_INVOKEVIRTUAL -> virtuals;
+                case OP_INVOKESPECIAL -> specials;
+                case OP_NEW -> news;
+                default -> null;
+            };
+            return map == null || map.isEmpty() ? null : map.get(in.u2(at + 1));
+        }
+    }
+    
+    /**
+     * Big-endian reads over the original class bytes
+     */
+    private static final class ClassReader {
+        private final byte[] b;
+        
+        ClassReader(byte[] b) {
+            this.b = b;
+        }
+        
+        int u1(int pos) { return b[pos] & 0xFF; }
+        int u2(int pos) { return (u1(pos) << 8) | u1(pos + 1); }
+        int u4(int pos) { return (u2(pos) << 16) | u2(pos + 2); }
+        
+        String utf8(int[] offsets, int index) {
+            int pos = offsets[index];
+            // Modified UTF-8 only differs from UTF-8 for NUL and supplementary chars,
+            // which never appear in the names compared here
+            return new String(b, pos + 2, u2(pos), StandardCharsets.UTF_8);
+        }
+    }
+    
+    /**
+     * New constant pool entries appended after the existing ones
+     */
+    private static final class ConstantPoolAppender {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int nextIndex;
+        
+        ConstantPoolAppender(int firstIndex) {
+            this.nextIndex = firstIndex;
+        }
+        
+        int classref(String name) {
+            return entry("C" + name, CONSTANT_CLASS, utf8(name), -1);
+        }
+        
+        int methodref(String owner, String name, String desc) {
+            int ownerClass = classref(owner);
+            int nat = entry("N" + name + desc, CONSTANT_NAME_AND_TYPE, utf8(name), utf8(desc));
+            return entry("M" + owner + name + desc, CONSTANT_METHODREF, ownerClass, nat);
+        }
+        
+        private int utf8(String value) {
+            Integer existing = entries.get("U" + value);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                out.writeByte(CONSTANT_UTF8);
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            entries.put("U" + value, nextIndex);
+            return nextIndex++;
+        }
+        
+        private int entry(String key, int tag, int first, int second) {
+            Integer existing = entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                out.writeByte(tag);
+                out.writeShort(first);
+                if (second >= 0) {
+                    out.writeShort(second);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            entries.put(key, nextIndex);
+            return nextIndex++;
+        }
+        
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
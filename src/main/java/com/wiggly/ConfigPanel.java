@@ -3,14 +3,19 @@ package com.wiggly;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 /**
- * Configuration panel for customizing keyboard mappings
+ * Configuration panel for customizing keyboard mappings and macros
+ * Built once and reused; the rows are only rebuilt when the mapping changed
  */
 public class ConfigPanel extends JDialog {
     private KeyboardMapper keyMapper;
     private JPanel mappingPanel;
+    private JPanel macroPanel;
+    private Map<Integer, Integer> shownMapping;
     
     public ConfigPanel(Frame parent, KeyboardMapper keyMapper) {
         super(parent, "Keyboard Configuration", true);
@@ -23,6 +28,20 @@ public class ConfigPanel extends JDialog {
         setLocationRelativeTo(parent);
     }
     
+    /**
+     * Shows the dialog with the mapper's current assignments
+     */
+    public void showDialog() {
+        Map<Integer, Integer> currentMapping = keyMapper.getKeyMapping();
+        if (!currentMapping.equals(shownMapping)) {
+            updateMappingRows(currentMapping);
+            mappingPanel.revalidate();
+        }
+        updateMacroRows();
+        setLocationRelativeTo(getParent());
+        setVisible(true);
+    }
+    
     private void initUI() {
         // Header
         JLabel headerLabel = new JLabel("Customize T9 Key Mapping", SwingConstants.CENTER);
@@ -35,7 +54,40 @@ public class ConfigPanel extends JDialog {
         mappingPanel.setLayout(new GridLayout(0, 3, 10, 10));
         mappingPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
         
-        Map<Integer, Integer> currentMapping = keyMapper.getKeyMapping();
+        updateMappingRows(keyMapper.getKeyMapping());
+        
+        // Macro panel: one row per macro with its trigger and T9 keys
+        macroPanel = new JPanel();
+        macroPanel.setLayout(new GridLayout(0, 3, 10, 10));
+        macroPanel.setBorder(BorderFactory.createTitledBorder("Macros"));
+        updateMacroRows();
+        
+        JPanel contentPanel = new JPanel(new BorderLayout());
+        contentPanel.add(mappingPanel, BorderLayout.NORTH);
+        contentPanel.add(macroPanel, BorderLayout.CENTER);
+        
+        JScrollPane scrollPane = new JScrollPane(contentPanel);
+        add(scrollPane, BorderLayout.CENTER);
+        
+        // Button panel
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton addMacroButton = new JButton("Add Macro...");
+        JButton resetButton = new JButton("Reset to Default");
+        JButton closeButton = new JButton("Close");
+        
+        addMacroButton.addActionListener(e -> addMacro());
+        resetButton.addActionListener(e -> resetToDefault());
+        closeButton.addActionListener(e -> setVisible(false));
+        
+        buttonPanel.add(addMacroButton);
+        buttonPanel.add(resetButton);
+        buttonPanel.add(closeButton);
+        
+        add(buttonPanel, BorderLayout.SOUTH);
+    }
+    
+    private void updateMappingRows(Map<Integer, Integer> currentMapping) {
+        mappingPanel.removeAll();
         
         // Add mapping rows
         for (Map.Entry<Integer, Integer> entry : currentMapping.entrySet()) {
@@ -50,22 +102,79 @@ public class ConfigPanel extends JDialog {
             mappingPanel.add(arrowLabel);
             mappingPanel.add(targetLabel);
         }
+        shownMapping = currentMapping;
+    }
         
-        JScrollPane scrollPane = new JScrollPane(mappingPanel);
-        add(scrollPane, BorderLayout.CENTER);
+    private void updateMacroRows() {
+        macroPanel.removeAll();
         
-        // Button panel
-        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
-        JButton resetButton = new JButton("Reset to Default");
-        JButton closeButton = new JButton("Close");
+        List<MacroEngine.Macro> macros = keyMapper.getMacroEngine().getMacros();
+        for (MacroEngine.Macro macro : macros) {
+            JButton removeButton = new JButton("Remove");
+            removeButton.addActionListener(e -> removeMacro(macro.getName()));
         
-        resetButton.addActionListener(e -> resetToDefault());
-        closeButton.addActionListener(e -> dispose());
+            macroPanel.add(new JLabel(macro.getName()));
+            macroPanel.add(new JLabel(KeyProfile.formatMacro(macro)));
+            macroPanel.add(removeButton);
+        }
+        if (macros.isEmpty()) {
+            macroPanel.add(new JLabel("No macros"));
+        }
+        macroPanel.revalidate();
+        macroPanel.repaint();
+    }
         
-        buttonPanel.add(resetButton);
-        buttonPanel.add(closeButton);
+    private void addMacro() {
+        JTextField nameField = new JTextField();
+        JTextField triggerField = new JTextField();
+        JTextField sequenceField = new JTextField();
         
-        add(buttonPanel, BorderLayout.SOUTH);
+        JPanel form = new JPanel(new GridLayout(0, 2, 5, 5));
+        form.add(new JLabel("Name:"));
+        form.add(nameField);
+        form.add(new JLabel("Trigger (VK_S VK_D or VK_CONTROL+VK_B):"));
+        form.add(triggerField);
+        form.add(new JLabel("T9 keys (8-8-5, L-2-OK):"));
+        form.add(sequenceField);
+        
+        // Mapped keys would otherwise be translated while typing
+        boolean wasEnabled = keyMapper.isEnabled();
+        keyMapper.setEnabled(false);
+        int result;
+        try {
+            result = JOptionPane.showConfirmDialog(this, form, "Add Macro", JOptionPane.OK_CANCEL_OPTION);
+        } finally {
+            keyMapper.setEnabled(wasEnabled);
+        }
+        if (result != JOptionPane.OK_OPTION) {
+            return;
+        }
+        
+        try {
+            MacroEngine.Macro macro = KeyProfile.parseMacro(nameField.getText().trim(),
+                triggerField.getText() + " : " + sequenceField.getText());
+            keyMapper.getMacroEngine().addMacro(macro);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Invalid Macro", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        saveProfile();
+        updateMacroRows();
+    }
+    
+    private void removeMacro(String name) {
+        keyMapper.getMacroEngine().removeMacro(name);
+        saveProfile();
+        updateMacroRows();
+    }
+    
+    private void saveProfile() {
+        try {
+            KeyProfile.save(KeyProfile.DEFAULT_PROFILE, keyMapper.getKeyMapping(), keyMapper.getMacroEngine().getMacros());
+        } catch (IOException e) {
+            System.err.println("Warning: Could not save key profile");
+            e.printStackTrace();
+        }
     }
     
     private String getT9KeyName(int keyCode) {
@@ -96,7 +205,7 @@ public class ConfigPanel extends JDialog {
             // This would reload default mappings
             JOptionPane.showMessageDialog(this, 
                 "Mappings reset to default. Please restart the application.");
-            dispose();
+            setVisible(false);
         }
     }
 }
@@ -0,0 +1,608 @@
+package com.wiggly;
+
+import javax.swing.JComponent;
+import javax.swing.JLayer;
+import javax.swing.SwingUtilities;
+import javax.swing.plaf.LayerUI;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Layer that runs a game's painting through the pixel converter
+ * The game paints into an offscreen frame whose pixels are converted
+ * and then drawn to the screen. With the filter off the game paints
+ * straight through, so the default path costs nothing. Games that draw
+ * with getGraphics() instead of paintComponent bypass the filter.
+ *
+ * With a native size set, the game is laid out at that size and its
+ * frames are upscaled to fill the layer, for fullscreen on large screens.
+ *
+ * A rotation turns the presented frame by quarter turns through a cached
+ * index table, while the game keeps rendering upright at its own size.
+ * While scaled or rotated, mouse events are taken by the layer's glass
+ * pane and passed on to the game at the point it drew under the pointer.
+ *
+ * The frame is hashed in fixed tiles and only tiles that changed are
+ * converted, rotated, scaled and drawn. A game repaint that changed nothing, such
+ * as a menu redrawn every frame, is not presented at all.
+ *
+ * While capturing, frames always go through the offscreen path, so a
+ * recorder can copy the last converted frame instead of painting the game again.
+ */
+public class DisplayFilter extends LayerUI<JComponent> {
+    
+    static final int TILE_SIZE = 16;
+    
+    private final PixelConverter converter = PixelConverter.create();
+    
+    // Reused buffers, only touched on the event thread: the game's raw
+    // frame, the converted frame, the rotated frame when rotating, and the
+    // upscaled frame when scaling
+    private BufferedImage frame;
+    private int[] pixels;
+    private BufferedImage output;
+    private int[] outputPixels;
+    private BufferedImage rotated;
+    private int[] rotatedPixels;
+    private BufferedImage scaled;
+    private int[] scaledPixels;
+    
+    // Tile hashes of the last frame drawn, and tiles that differ from it
+    private long[] tileHashes = new long[0];
+    private long[] rowHashes = new long[0];
+    private boolean[] dirtyTiles = new boolean[0];
+    private int tilesAcross;
+    private int tilesDown;
+    private boolean allDirty = true;
+    private PixelConverter.Mode presentedMode;
+    private final Rectangle dirtyBounds = new Rectangle();
+    private final Rectangle presentedBounds = new Rectangle();
+    private final Rectangle layerArea = new Rectangle();
+    
+    // Quarter turns clockwise, and for each rotated pixel the frame pixel it shows
+    private int rotation;
+    private int[] rotationTable = new int[0];
+    private int rotationTableTurns = -1;
+    
+    // Set when paintImmediately has already rendered the frame for paint
+    private boolean framePending;
+    
+    // Set while a recording copies frames; the serial counts converted frames that changed
+    private boolean capturing;
+    private int frameSerial;
+    
+    // Size the game renders at when upscaled; null lets it fill the layer
+    private Dimension nativeSize;
+    
+    // Layer the filter is installed on, and the game component the last
+    // press went to, which also gets the drags and release that follow
+    private JLayer<?> layer;
+    private Component mouseTarget;
+    private final MouseRouter mouseRouter = new MouseRouter();
+    
+    // Account the game's painting and routed input on the event thread is charged to
+    private volatile GameMonitor.Account account;
+    
+    /**
+     * Passes mouse events from the glass pane on to the game
+     */
+    private final class MouseRouter extends MouseAdapter {
+        @Override
+        public void mousePressed(MouseEvent e) { route(e); }
+        @Override
+        public void mouseReleased(MouseEvent e) { route(e); }
+        @Override
+        public void mouseClicked(MouseEvent e) { route(e); }
+        @Override
+        public void mouseEntered(MouseEvent e) { route(e); }
+        @Override
+        public void mouseExited(MouseEvent e) { route(e); }
+        @Override
+        public void mouseMoved(MouseEvent e) { route(e); }
+        @Override
+        public void mouseDragged(MouseEvent e) { route(e); }
+        @Override
+        public void mouseWheelMoved(MouseWheelEvent e) { route(e); }
+    }
+    
+    public void setMode(PixelConverter.Mode mode) {
+        converter.setMode(mode);
+    }
+    
+    public PixelConverter.Mode getMode() {
+        return converter.getMode();
+    }
+    
+    public PixelConverter getConverter() {
+        return converter;
+    }
+    
+    public void setAccount(GameMonitor.Account account) {
+        this.account = account;
+    }
+    
+    /**
+     * Sets the size the game renders at, or null to render at the layer's size
+     */
+    public void setNativeSize(Dimension size) {
+        nativeSize = size != null ? new Dimension(size) : null;
+        allDirty = true;
+    }
+    
+    /**
+     * Turns the presented frame clockwise by the given number of quarter turns
+     */
+    public void setRotation(int quarterTurns) {
+        rotation = quarterTurns & 3;
+        allDirty = true;
+    }
+    
+    public int getRotation() {
+        return rotation;
+    }
+    
+    // Size the game renders at; without a native size it is the layer's, turned back
+    private int nativeWidth(Component c) {
+        return nativeSize != null ? nativeSize.width : (rotation & 1) == 0 ? c.getWidth() : c.getHeight();
+    }
+    
+    private int nativeHeight(Component c) {
+        return nativeSize != null ? nativeSize.height : (rotation & 1) == 0 ? c.getHeight() : c.getWidth();
+    }
+    
+    // Size of the frame after rotation, before scaling
+    private int presentedWidth(Component c) {
+        return (rotation & 1) == 0 ? nativeWidth(c) : nativeHeight(c);
+    }
+    
+    private int presentedHeight(Component c) {
+        return (rotation & 1) == 0 ? nativeHeight(c) : nativeWidth(c);
+    }
+    
+    private boolean isScaling(Component c) {
+        return presentedWidth(c) != c.getWidth() || presentedHeight(c) != c.getHeight();
+    }
+    
+    private boolean isFiltering(Component c) {
+        return (capturing || isScaling(c) || rotation != 0 || converter.getMode() != PixelConverter.Mode.OFF)
+            && c.getWidth() > 0 && c.getHeight() > 0;
+    }
+    
+    /**
+     * Keeps frames on the offscreen path for copyFrame; call on the event thread
+     */
+    public void setCapturing(boolean capture) {
+        if (capture != capturing) {
+            capturing = capture;
+            allDirty = true;
+            if (layer != null) {
+                layer.repaint();
+            }
+        }
+    }
+    
+    /**
+     * Changes whenever a new converted frame has been drawn
+     */
+    public int getFrameSerial() {
+        return frameSerial;
+    }
+    
+    /**
+     * Size of the converted, upright frame, or null before the first one
+     */
+    public Dimension getFrameSize() {
+        return output != null ? new Dimension(output.getWidth(), output.getHeight()) : null;
+    }
+    
+    /**
+     * Copies the last converted frame into an image of its size
+     * Returns false if there is none of that size yet.
+     */
+    public boolean copyFrame(BufferedImage image) {
+        if (output == null || output.getWidth() != image.getWidth() || output.getHeight() != image.getHeight()) {
+            return false;
+        }
+        image.getRaster().setDataElements(0, 0, output.getWidth(), output.getHeight(), outputPixels);
+        return true;
+    }
+    
+    @Override
+    public void installUI(JComponent c) {
+        super.installUI(c);
+        layer = (JLayer<?>) c;
+    }
+    
+    @Override
+    public void uninstallUI(JComponent c) {
+        setMouseRouting((JLayer<?>) c, false);
+        layer = null;
+        super.uninstallUI(c);
+    }
+    
+    @Override
+    public void doLayout(JLayer<? extends JComponent> l) {
+        super.doLayout(l);
+        Component view = l.getView();
+        if ((nativeSize != null || rotation != 0) && view != null) {
+            view.setBounds(0, 0, nativeWidth(l), nativeHeight(l));
+        }
+        // Unscaled and upright, the pointer is already over the right pixel
+        setMouseRouting(l, rotation != 0 || isScaling(l));
+    }
+    
+    /**
+     * Starts or stops taking mouse events on the glass pane, which only
+     * receives them while it has listeners
+     */
+    private void setMouseRouting(JLayer<?> l, boolean routing) {
+        Component glassPane = l.getGlassPane();
+        if (glassPane == null) {
+            return;
+        }
+        boolean installed = Arrays.asList(glassPane.getMouseListeners()).contains(mouseRouter);
+        if (routing && !installed) {
+            glassPane.addMouseListener(mouseRouter);
+            glassPane.addMouseMotionListener(mouseRouter);
+            glassPane.addMouseWheelListener(mouseRouter);
+        } else if (!routing && installed) {
+            glassPane.removeMouseListener(mouseRouter);
+            glassPane.removeMouseMotionListener(mouseRouter);
+            glassPane.removeMouseWheelListener(mouseRouter);
+            mouseTarget = null;
+        }
+    }
+    
+    private void route(MouseEvent e) {
+        JLayer<?> l = layer;
+        Component view = l != null ? l.getView() : null;
+        if (view == null) {
+            return;
+        }
+        Point point = toGame(e.getX(), e.getY(), l);
+        int id = e.getID();
+        Component target;
+        if (mouseTarget != null && (id == MouseEvent.MOUSE_DRAGGED || id == MouseEvent.MOUSE_RELEASED
+                || id == MouseEvent.MOUSE_CLICKED)) {
+            target = mouseTarget;
+        } else {
+            target = SwingUtilities.getDeepestComponentAt(view, point.x, point.y);
+            if (target == null) {
+                target = view;
+            }
+        }
+        if (id == MouseEvent.MOUSE_PRESSED) {
+            mouseTarget = target;
+        }
+        
+        Point at = SwingUtilities.convertPoint(view, point, target);
+        MouseEvent routed;
+        if (e instanceof MouseWheelEvent) {
+            MouseWheelEvent wheel = (MouseWheelEvent) e;
+            routed = new MouseWheelEvent(target, id, e.getWhen(), e.getModifiersEx(), at.x, at.y,
+                e.getXOnScreen(), e.getYOnScreen(), e.getClickCount(), e.isPopupTrigger(),
+                wheel.getScrollType(), wheel.getScrollAmount(), wheel.getWheelRotation(),
+                wheel.getPreciseWheelRotation());
+        } else {
+            routed = new MouseEvent(target, id, e.getWhen(), e.getModifiersEx(), at.x, at.y,
+                e.getXOnScreen(), e.getYOnScreen(), e.getClickCount(), e.isPopupTrigger(), e.getButton());
+        }
+        long start = GameMonitor.currentThreadCpuNanos();
+        target.dispatchEvent(routed);
+        charge(start);
+        e.consume();
+    }
+    
+    /**
+     * Maps a layer point to the game pixel presented there, undoing the
+     * scaling and then the rotation
+     */
+    private Point toGame(int x, int y, Component c) {
+        int turnedX = (int) Math.floorDiv((long) x * presentedWidth(c), Math.max(1, c.getWidth()));
+        int turnedY = (int) Math.floorDiv((long) y * presentedHeight(c), Math.max(1, c.getHeight()));
+        int width = nativeWidth(c);
+        int height = nativeHeight(c);
+        // Same mapping as the rotation table
+        return switch (rotation) {
+            case 1 -> new Point(turnedY, height - 1 - turnedX);
+            case 2 -> new Point(width - 1 - turnedX, height - 1 - turnedY);
+            case 3 -> new Point(width - 1 - turnedY, turnedX);
+            default -> new Point(turnedX, turnedY);
+        };
+    }
+    
+    /**
+     * Game repaints arrive here; the frame is rendered and compared first so
+     * only the changed area is presented, or nothing when nothing changed
+     */
+    @Override
+    public void paintImmediately(int x, int y, int width, int height, JLayer<? extends JComponent> l) {
+        // Games animating from the event thread are not held by the clock; stop presenting instead
+        if (VirtualClock.isPaused()) {
+            return;
+        }
+        if (!isFiltering(l)) {
+            super.paintImmediately(x, y, width, height, l);
+            return;
+        }
+        
+        long start = GameMonitor.currentThreadCpuNanos();
+        boolean changed = renderFrame(l);
+        charge(start);
+        if (!changed) {
+            Telemetry.getShared().frameSkipped();
+            return;
+        }
+        
+        Rectangle area = toLayer(presentedBounds, l);
+        framePending = true;
+        try {
+            super.paintImmediately(area.x, area.y, area.width, area.height, l);
+        } finally {
+            framePending = false;
+        }
+    }
+    
+    @Override
+    public void paint(Graphics g, JComponent c) {
+        long start = GameMonitor.currentThreadCpuNanos();
+        try {
+            present(g, c);
+        } finally {
+            charge(start);
+        }
+    }
+    
+    private void present(Graphics g, JComponent c) {
+        Telemetry.getShared().framePainted();
+        if (!isFiltering(c)) {
+            super.paint(g, c);
+            return;
+        }
+        
+        // Exposed or resized: nothing rendered yet for this pass
+        if (!framePending) {
+            renderFrame((JLayer<?>) c);
+        }
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        
+        // Only changed tiles are converted; the rest of the output still
+        // holds their converted pixels and must not be converted twice
+        if (!dirtyBounds.isEmpty()) {
+            for (int ty = 0; ty < tilesDown; ty++) {
+                for (int tx = 0; tx < tilesAcross; tx++) {
+                    if (dirtyTiles[ty * tilesAcross + tx]) {
+                        presentTile(tx, ty, width, height);
+                    }
+                }
+            }
+            frameSerial++;
+        }
+        
+        BufferedImage presented = output;
+        int[] presentedPixels = outputPixels;
+        if (rotation != 0) {
+            rotate(width, height);
+            presented = rotated;
+            presentedPixels = rotatedPixels;
+        }
+        
+        if (!isScaling(c)) {
+            g.drawImage(presented, 0, 0, null);
+        } else {
+            int targetWidth = c.getWidth();
+            int targetHeight = c.getHeight();
+            if (scaled == null || scaled.getWidth() != targetWidth || scaled.getHeight() != targetHeight) {
+                scaled = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+                scaledPixels = ((DataBufferInt) scaled.getRaster().getDataBuffer()).getData();
+                presentedBounds.setBounds(0, 0, presented.getWidth(), presented.getHeight());
+            }
+            if (!presentedBounds.isEmpty()) {
+                Rectangle area = toLayer(presentedBounds, c);
+                Upscaler.getShared().scale(presentedPixels, presented.getWidth(), presented.getHeight(),
+                    scaledPixels, targetWidth, targetHeight, area.x, area.y, area.width, area.height);
+            }
+            g.drawImage(scaled, 0, 0, null);
+        }
+        dirtyBounds.setBounds(0, 0, 0, 0);
+        presentedBounds.setBounds(0, 0, 0, 0);
+    }
+    
+    // The game ran on the event thread, which belongs to no game, so charge its account directly
+    private void charge(long startCpuNanos) {
+        GameMonitor.Account charged = account;
+        if (charged != null) {
+            charged.chargeEventThread(GameMonitor.currentThreadCpuNanos() - startCpuNanos);
+        }
+    }
+    
+    /**
+     * Copies the changed area of the converted frame into the rotated one
+     */
+    private void rotate(int width, int height) {
+        int turnedWidth = (rotation & 1) == 0 ? width : height;
+        int turnedHeight = (rotation & 1) == 0 ? height : width;
+        if (rotated == null || rotated.getWidth() != turnedWidth || rotated.getHeight() != turnedHeight
+                || rotationTableTurns != rotation) {
+            if (rotated == null || rotated.getWidth() != turnedWidth || rotated.getHeight() != turnedHeight) {
+                rotated = new BufferedImage(turnedWidth, turnedHeight, BufferedImage.TYPE_INT_RGB);
+                rotatedPixels = ((DataBufferInt) rotated.getRaster().getDataBuffer()).getData();
+                rotationTable = new int[turnedWidth * turnedHeight];
+            }
+            buildRotationTable(width, height, turnedWidth, turnedHeight);
+            presentedBounds.setBounds(0, 0, turnedWidth, turnedHeight);
+        }
+        
+        int[] table = rotationTable;
+        for (int y = presentedBounds.y; y < presentedBounds.y + presentedBounds.height; y++) {
+            int end = y * turnedWidth + presentedBounds.x + presentedBounds.width;
+            for (int i = y * turnedWidth + presentedBounds.x; i < end; i++) {
+                rotatedPixels[i] = outputPixels[table[i]];
+            }
+        }
+    }
+    
+    private void buildRotationTable(int width, int height, int turnedWidth, int turnedHeight) {
+        for (int y = 0; y < turnedHeight; y++) {
+            for (int x = 0; x < turnedWidth; x++) {
+                int sourceX;
+                int sourceY;
+                switch (rotation) {
+                    case 1 -> {
+                        sourceX = y;
+                        sourceY = height - 1 - x;
+                    }
+                    case 2 -> {
+                        sourceX = width - 1 - x;
+                        sourceY = height - 1 - y;
+                    }
+                    default -> {
+                        sourceX = width - 1 - y;
+                        sourceY = x;
+                    }
+                }
+                rotationTable[y * turnedWidth + x] = sourceY * width + sourceX;
+            }
+        }
+        rotationTableTurns = rotation;
+    }
+    
+    /**
+     * Paints the game offscreen and marks the tiles that changed since the
+     * last frame drawn; returns false when none did
+     */
+    private boolean renderFrame(JLayer<?> l) {
+        int width = nativeWidth(l);
+        int height = nativeHeight(l);
+        if (frame == null || frame.getWidth() != width || frame.getHeight() != height) {
+            frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+            output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            outputPixels = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+            tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+            tilesDown = (height + TILE_SIZE - 1) / TILE_SIZE;
+            tileHashes = new long[tilesAcross * tilesDown];
+            rowHashes = new long[tilesAcross];
+            dirtyTiles = new boolean[tilesAcross * tilesDown];
+            allDirty = true;
+        }
+        if (presentedMode != converter.getMode()) {
+            presentedMode = converter.getMode();
+            allDirty = true;
+        }
+        
+        Graphics2D frameGraphics = frame.createGraphics();
+        try {
+            frameGraphics.setColor(Color.BLACK);
+            frameGraphics.fillRect(0, 0, width, height);
+            l.getView().paint(frameGraphics);
+        } finally {
+            frameGraphics.dispose();
+        }
+        
+        boolean changed = hashTiles(width, height);
+        allDirty = false;
+        turnBounds(dirtyBounds, width, height, presentedBounds);
+        return changed;
+    }
+    
+    private boolean hashTiles(int width, int height) {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = -1;
+        int maxY = -1;
+        for (int ty = 0; ty < tilesDown; ty++) {
+            Arrays.fill(rowHashes, 1);
+            int rowEnd = Math.min(height, (ty + 1) * TILE_SIZE);
+            for (int y = ty * TILE_SIZE; y < rowEnd; y++) {
+                int offset = y * width;
+                for (int tx = 0; tx < tilesAcross; tx++) {
+                    long hash = rowHashes[tx];
+                    int end = offset + Math.min(width, (tx + 1) * TILE_SIZE);
+                    for (int i = offset + tx * TILE_SIZE; i < end; i++) {
+                        hash = hash * 0x9E3779B97F4A7C15L + pixels[i];
+                    }
+                    rowHashes[tx] = hash;
+                }
+            }
+            for (int tx = 0; tx < tilesAcross; tx++) {
+                int tile = ty * tilesAcross + tx;
+                boolean dirty = allDirty || dirtyTiles[tile] || tileHashes[tile] != rowHashes[tx];
+                tileHashes[tile] = rowHashes[tx];
+                dirtyTiles[tile] = dirty;
+                if (dirty) {
+                    minX = Math.min(minX, tx);
+                    minY = Math.min(minY, ty);
+                    maxX = Math.max(maxX, tx);
+                    maxY = Math.max(maxY, ty);
+                }
+            }
+        }
+        
+        if (maxX < 0) {
+            dirtyBounds.setBounds(0, 0, 0, 0);
+            return false;
+        }
+        dirtyBounds.setBounds(minX * TILE_SIZE, minY * TILE_SIZE,
+            Math.min(width, (maxX + 1) * TILE_SIZE) - minX * TILE_SIZE,
+            Math.min(height, (maxY + 1) * TILE_SIZE) - minY * TILE_SIZE);
+        return true;
+    }
+    
+    private void presentTile(int tx, int ty, int width, int height) {
+        int x = tx * TILE_SIZE;
+        int y = ty * TILE_SIZE;
+        int tileWidth = Math.min(TILE_SIZE, width - x);
+        int tileHeight = Math.min(TILE_SIZE, height - y);
+        for (int row = y; row < y + tileHeight; row++) {
+            System.arraycopy(pixels, row * width + x, outputPixels, row * width + x, tileWidth);
+        }
+        converter.convert(outputPixels, width, x, y, tileWidth, tileHeight);
+        dirtyTiles[ty * tilesAcross + tx] = false;
+    }
+    
+    /**
+     * Maps an area of the upright frame to the same area after rotation
+     */
+    private void turnBounds(Rectangle area, int width, int height, Rectangle turned) {
+        switch (rotation) {
+            case 1 -> turned.setBounds(height - area.y - area.height, area.x, area.height, area.width);
+            case 2 -> turned.setBounds(width - area.x - area.width, height - area.y - area.height, area.width, area.height);
+            case 3 -> turned.setBounds(area.y, width - area.x - area.width, area.height, area.width);
+            default -> turned.setBounds(area);
+        }
+    }
+    
+    /**
+     * Maps an area of the rotated frame to the layer pixels it covers
+     */
+    private Rectangle toLayer(Rectangle area, Component c) {
+        if (!isScaling(c)) {
+            layerArea.setBounds(area);
+            return layerArea;
+        }
+        long sourceWidth = presentedWidth(c);
+        long sourceHeight = presentedHeight(c);
+        long targetWidth = c.getWidth();
+        long targetHeight = c.getHeight();
+        // First target pixel whose nearest source pixel is at or past the edge
+        int x0 = (int) ((area.x * targetWidth + sourceWidth - 1) / sourceWidth);
+        int y0 = (int) ((area.y * targetHeight + sourceHeight - 1) / sourceHeight);
+        int x1 = (int) (((area.x + area.width) * targetWidth + sourceWidth - 1) / sourceWidth);
+        int y1 = (int) (((area.y + area.height) * targetHeight + sourceHeight - 1) / sourceHeight);
+        layerArea.setBounds(x0, y0, x1 - x0, y1 - y0);
+        return layerArea;
+    }
+}
@@ -0,0 +1,129 @@
+package com.wiggly;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.util.HexFormat;
+
+/**
+ * Class loader for a single game JAR
+ * Identifies the JAR by content hash and serves its images and sounds
+ * through the launcher-wide caches. Game classes are rewritten on load
+ * so their time calls go through the VirtualClock.
+ */
+public class GameClassLoader extends URLClassLoader {
+    private final File jarFile;
+    private final String jarHash;
+    
+    // Resource URLs of this JAR start with this, as built by URLClassLoader
+    private final String resourceUrlPrefix;
+    
+    public GameClassLoader(File jarFile, ClassLoader parent) throws IOException {
+        super(new URL[]{jarFile.toURI().toURL()}, parent);
+        this.jarFile = jarFile;
+        this.jarHash = hashFile(jarFile);
+        this.resourceUrlPrefix = "jar:" + jarFile.toURI().toURL() + "!/";
+        Telemetry.getShared().classLoaderCreated(this);
+    }
+    
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        if (!ClassRewriter.isEnabled()) {
+            return super.findClass(name);
+        }
+        
+        byte[] bytes;
+        try {
+            bytes = ClassRewriter.getShared().loadClass(jarHash, name.replace('.', '/') + ".class", this::openOwnResource);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        
+        int lastDot = name.lastIndexOf('.');
+        if (lastDot > 0) {
+            String packageName = name.substring(0, lastDot);
+            if (getDefinedPackage(packageName) == null) {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            }
+        }
+        
+        try {
+            CodeSource source = new CodeSource(jarFile.toURI().toURL(), (Certificate[]) null);
+            return defineClass(name, bytes, 0, bytes.length, source);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+    
+    public File getJarFile() {
+        return jarFile;
+    }
+    
+    public String getJarHash() {
+        return jarHash;
+    }
+    
+    /**
+     * Path of a resource URL inside this game's JAR, or null if it points elsewhere
+     */
+    public String getResourcePath(URL url) {
+        String spec = url.toString();
+        return spec.startsWith(resourceUrlPrefix) ? spec.substring(resourceUrlPrefix.length()) : null;
+    }
+    
+    /**
+     * Returns the decoded pixels of an image resource such as "/x.png"
+     */
+    public ImageCache.CachedImage loadImagePixels(String path) throws IOException {
+        return ImageCache.getShared().get(jarHash, normalize(path), this::openGameResource);
+    }
+    
+    /**
+     * Returns the decoded PCM of a sound resource, decoding it once per library
+     */
+    public short[] loadSound(String path) throws IOException {
+        return SoundCache.getShared().getClip(jarHash, normalize(path), this::openGameResource);
+    }
+    
+    private InputStream openOwnResource(String path) throws IOException {
+        URL url = findResource(path);
+        return url != null ? url.openStream() : null;
+    }
+    
+    private InputStream openGameResource(String path) throws IOException {
+        // Prefer the game's own JAR over same-named resources on the launcher classpath
+        URL url = findResource(path);
+        if (url == null) {
+            url = getResource(path);
+        }
+        return url != null ? url.openStream() : null;
+    }
+    
+    private static String normalize(String path) {
+        // MIDP resource paths are absolute within the JAR
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+    
+    private static String hashFile(File file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+                while (in.read(buffer) >= 0) {
+                    // digest is updated as the stream is read
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
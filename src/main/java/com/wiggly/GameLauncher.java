@@ -6,10 +6,11 @@ import javax.swing.border.LineBorder;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.jar.JarFile;
 
@@ -21,19 +22,34 @@ public class GameLauncher extends JFrame {
     private JPanel gamePanel;
     private JButton loadGameButton;
     private JComboBox<String> resolutionComboBox;
+    private JComboBox<String> speedComboBox;
     private JButton modeToggleButton;
     private JLabel statusLabel;
+    private JLabel usageLabel;
+    private JComboBox<String> cpuCapComboBox;
+    private JComboBox<String> displayComboBox;
+    private JComboBox<String> rotationComboBox;
     private JPanel keyMappingPanel;
     private Map<Integer, JLabel> keyDisplayLabels;
     private File currentGameJar;
     private KeyboardMapper keyMapper;
+    private final InputRouter inputRouter = new InputRouter();
+    private final InputRouter.KeyAction keyCaptureAction = this::handleKeyCapture;
     private GameOrientation currentOrientation;
     private Integer pendingT9Key = null;
     private JLabel pendingLabel = null;
     private boolean isPortraitMode = true;
     private boolean isFullscreen = false;
+    private int rotation = 0;  // quarter turns clockwise
     private JPanel controlPanel;
     private JPanel gamePanelWrapper;
+    private JPanel emptySurface;
+    private JCheckBox splitKeyboardCheckBox;
+    private final List<GameSession> sessions = new ArrayList<>();
+    private GameSession activeSession;
+    private boolean firstFrameReported;
+    private SettingsDialog settingsDialog;
+    private ConfigPanel configPanel;
     
     // Game orientation modes
     public enum GameOrientation {
@@ -69,9 +85,24 @@ public class GameLauncher extends JFrame {
     private static final int KEY_CALL = 1002;       // Green call button
     private static final int KEY_DISCONNECT = 1003; // Red disconnect button
 
+    // Set to "false" to keep games running while the launcher is in the background
+    public static final String AUTO_PAUSE_PROPERTY = "wiggly.autopause";
+    
+    private static final String TITLE = "Wiggly - JAR Game Launcher";
+    
+    // Game tiles: at most this many across, this far apart
+    private static final int MAX_TILE_COLUMNS = 3;
+    private static final int TILE_GAP = 10;
+    
+    // Fallback start time where the OS does not report the process start
+    private static final long STARTUP_MILLIS = System.currentTimeMillis();
+    
+    // Set by the appcds Maven profile: exit once the first frame is shown
+    public static final String TRAINING_PROPERTY = "wiggly.startup.training";
+    
     // Default T9 keypad mapping
     // Q=1, W=2, E=3, A=4, S=5, D=6, Z=7, X=8, C=9, V=*, Space=0, B=#
-    private static final Map<Integer, Integer> DEFAULT_KEY_MAPPING = new HashMap<Integer, Integer>() {{
+    static final Map<Integer, Integer> DEFAULT_KEY_MAPPING = new HashMap<Integer, Integer>() {{
         put(KeyEvent.VK_Q, KeyEvent.VK_NUMPAD1);
         put(KeyEvent.VK_W, KeyEvent.VK_NUMPAD2);
         put(KeyEvent.VK_E, KeyEvent.VK_NUMPAD3);
@@ -86,17 +117,40 @@ public class GameLauncher extends JFrame {
         put(KeyEvent.VK_B, KeyEvent.VK_ADD);  // # key (using + as substitute)
     }};
     
+    // Second keyboard zone for the next game when the keyboard is split
+    // U=1, I=2, O=3, J=4, K=5, L=6, M=7, ,=8, .=9, N=*, H=0, Y=#
+    private static final Map<Integer, Integer> ZONE_KEY_MAPPING = new HashMap<Integer, Integer>() {{
+        put(KeyEvent.VK_U, KeyEvent.VK_NUMPAD1);
+        put(KeyEvent.VK_I, KeyEvent.VK_NUMPAD2);
+        put(KeyEvent.VK_O, KeyEvent.VK_NUMPAD3);
+        put(KeyEvent.VK_J, KeyEvent.VK_NUMPAD4);
+        put(KeyEvent.VK_K, KeyEvent.VK_NUMPAD5);
+        put(KeyEvent.VK_L, KeyEvent.VK_NUMPAD6);
+        put(KeyEvent.VK_M, KeyEvent.VK_NUMPAD7);
+        put(KeyEvent.VK_COMMA, KeyEvent.VK_NUMPAD8);
+        put(KeyEvent.VK_PERIOD, KeyEvent.VK_NUMPAD9);
+        put(KeyEvent.VK_N, KeyEvent.VK_MULTIPLY);
+        put(KeyEvent.VK_H, KeyEvent.VK_NUMPAD0);
+        put(KeyEvent.VK_Y, KeyEvent.VK_ADD);
+    }};
+    
     public GameLauncher() {
-        setTitle("Wiggly - JAR Game Launcher");
+        setTitle(TITLE);
         setSize(900, 650);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
         
-        keyMapper = new KeyboardMapper(DEFAULT_KEY_MAPPING);
+        // Start with the layout saved from the settings dialog, if any
+        keyMapper = new KeyboardMapper(KeyProfile.loadOrDefault(KeyProfile.DEFAULT_PROFILE, DEFAULT_KEY_MAPPING));
+        KeyProfile.applyMacros(KeyProfile.DEFAULT_PROFILE, keyMapper.getMacroEngine());
+        InputServer.startIfConfigured(keyMapper);
         currentOrientation = GameOrientation.PORTRAIT_STANDARD;
         keyDisplayLabels = new HashMap<>();
         isPortraitMode = true;
         
+        // Telemetry MBean and frame counting for JMX and Flight Recorder
+        Telemetry.getShared().installFrameCounter();
+        
         initUI();
         
         setLocationRelativeTo(null);
@@ -106,9 +160,37 @@ public class GameLauncher extends JFrame {
         // Top panel with controls
         controlPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         loadGameButton = new JButton("Load JAR Game");
-        loadGameButton.addActionListener(e -> loadGame());
+        loadGameButton.addActionListener(e -> loadGame(false));
         controlPanel.add(loadGameButton);
         
+        // Extra games run side by side in tiles
+        JButton addGameButton = new JButton("➕ Add Game");
+        addGameButton.addActionListener(e -> loadGame(true));
+        addGameButton.setToolTipText("Run another game next to the current ones");
+        controlPanel.add(addGameButton);
+        
+        JButton closeGameButton = new JButton("Close Game");
+        closeGameButton.addActionListener(e -> {
+            if (activeSession != null) {
+                closeSession(activeSession);
+            }
+        });
+        closeGameButton.setToolTipText("Close the selected game");
+        controlPanel.add(closeGameButton);
+        
+        JButton settingsButton = new JButton("⚙ Settings");
+        settingsButton.addActionListener(e -> {
+            getSettingsDialog().showDialog();
+            // Modal: returns once the dialog is closed
+            updateKeyMappingDisplay();
+        });
+        controlPanel.add(settingsButton);
+        
+        JButton mappingsButton = new JButton("Mappings");
+        mappingsButton.addActionListener(e -> getConfigPanel().showDialog());
+        mappingsButton.setToolTipText("List all key mappings");
+        controlPanel.add(mappingsButton);
+        
         controlPanel.add(new JSeparator(SwingConstants.VERTICAL));
         
         JLabel instructionLabel = new JLabel("💡 Click any key button to reassign");
@@ -138,21 +220,85 @@ public class GameLauncher extends JFrame {
         });
         controlPanel.add(resolutionComboBox);
         
+        // Turbo mode: runs the game's virtual clock faster than real time
+        JLabel speedLabel = new JLabel("Speed:");
+        controlPanel.add(speedLabel);
+        
+        speedComboBox = new JComboBox<>(new String[]{"1x", "2x", "4x", "8x"});
+        speedComboBox.addActionListener(e -> {
+            String speed = (String) speedComboBox.getSelectedItem();
+            VirtualClock.setSpeed(Integer.parseInt(speed.substring(0, speed.length() - 1)));
+        });
+        speedComboBox.setToolTipText("Game speed (turbo mode)");
+        speedComboBox.setEnabled(ClassRewriter.isEnabled());
+        controlPanel.add(speedComboBox);
+        
+        splitKeyboardCheckBox = new JCheckBox("Split keys");
+        splitKeyboardCheckBox.setToolTipText("Second game uses U I O / J K L / M , . (N=* H=0 Y=#) instead of following focus");
+        splitKeyboardCheckBox.addActionListener(e -> updateKeyRouting());
+        controlPanel.add(splitKeyboardCheckBox);
+        
+        // Optional CPU cap for games that busy-loop
+        JLabel cpuCapLabel = new JLabel("CPU cap:");
+        controlPanel.add(cpuCapLabel);
+        
+        cpuCapComboBox = new JComboBox<>(new String[]{"Off", "25%", "50%", "75%"});
+        cpuCapComboBox.addActionListener(e -> {
+            String cap = (String) cpuCapComboBox.getSelectedItem();
+            if (activeSession != null && cap != null) {
+                activeSession.getAccount().setCpuCap(cap.equals("Off") ? 0 : Integer.parseInt(cap.substring(0, cap.length() - 1)));
+            }
+        });
+        cpuCapComboBox.setToolTipText("Limit the selected game's share of one core; its painting counts, but only its own threads are slowed");
+        cpuCapComboBox.setEnabled(ClassRewriter.isEnabled());
+        controlPanel.add(cpuCapComboBox);
+        
+        // Phone display emulation applied to every running game
+        JLabel displayLabel = new JLabel("Display:");
+        controlPanel.add(displayLabel);
+        
+        displayComboBox = new JComboBox<>();
+        for (PixelConverter.Mode mode : PixelConverter.Mode.values()) {
+            displayComboBox.addItem(mode.getDisplayName());
+        }
+        displayComboBox.addActionListener(e -> {
+            PixelConverter.Mode mode = getDisplayMode();
+            for (GameSession session : sessions) {
+                session.setDisplayMode(mode);
+            }
+        });
+        displayComboBox.setToolTipText("Emulate a phone screen's colour depth and LCD look");
+        controlPanel.add(displayComboBox);
+        
+        // Live rotation: the game keeps running upright, only its output turns
+        rotationComboBox = new JComboBox<>(new String[]{"0°", "90°", "180°", "270°"});
+        rotationComboBox.addActionListener(e -> setRotation(rotationComboBox.getSelectedIndex()));
+        rotationComboBox.setToolTipText("Rotate the game screen and D-pad without restarting");
+        controlPanel.add(rotationComboBox);
+        
         controlPanel.add(new JSeparator(SwingConstants.VERTICAL));
         
         statusLabel = new JLabel("No game loaded | Portrait mode");
         controlPanel.add(statusLabel);
         
+        // Resource usage of the selected game, refreshed once a second
+        usageLabel = new JLabel();
+        usageLabel.setForeground(Color.GRAY);
+        controlPanel.add(usageLabel);
+        new Timer(1000, e -> updateUsageLabel()).start();
+        
         add(controlPanel, BorderLayout.NORTH);
         
-        // Center panel for game display with preferred size
-        gamePanel = new JPanel(new BorderLayout());
-        gamePanel.setBackground(Color.BLACK);
-        gamePanel.setBorder(BorderFactory.createLineBorder(Color.GRAY, 2));
-        gamePanel.setPreferredSize(new Dimension(
-            currentOrientation.getWidth(), 
-            currentOrientation.getHeight()
-        ));
+        // Center panel holding one tile per running game
+        gamePanel = new JPanel(new GridLayout(1, 1, 10, 10));
+        gamePanel.setOpaque(false);
+        
+        // Shown while no game is running
+        emptySurface = new JPanel(new BorderLayout());
+        emptySurface.setBackground(Color.BLACK);
+        emptySurface.setBorder(BorderFactory.createLineBorder(Color.GRAY, 2));
+        sizeSurface(emptySurface);
+        gamePanel.add(emptySurface);
         
         // Wrapper panel to center the game panel
         gamePanelWrapper = new JPanel(new GridBagLayout());
@@ -166,28 +312,123 @@ public class GameLauncher extends JFrame {
         keyMappingPanel.setPreferredSize(new Dimension(280, 0));
         add(keyMappingPanel, BorderLayout.EAST);
         
-        // Add global key listener
-        KeyboardFocusManager.getCurrentKeyboardFocusManager()
-            .addKeyEventDispatcher(keyMapper);
+        // All keys go through one router: mappings first, then hotkeys
+        // (F11 fullscreen, F12 screenshot, F9 start/stop recording)
+        inputRouter.addMapper(keyMapper);
+        inputRouter.bindHotkey(KeyEvent.VK_F11, this::toggleFullscreen);
+        inputRouter.bindHotkey(KeyEvent.VK_F12, this::takeScreenshot);
+        inputRouter.bindHotkey(KeyEvent.VK_F9, this::toggleRecording);
+        inputRouter.install();
         
-        // Add key capture listener for assignment
+        // Keys follow focus, so the focused tile is the selected game
         KeyboardFocusManager.getCurrentKeyboardFocusManager()
-            .addKeyEventDispatcher(this::handleKeyCapture);
+            .addPropertyChangeListener("focusOwner", e -> {
+                Component owner = (Component) e.getNewValue();
+                for (GameSession session : sessions) {
+                    if (session.contains(owner)) {
+                        setActiveSession(session);
+                        break;
+                    }
+                }
+            });
         
-        // Add fullscreen toggle listener (F11 to enter, ESC to exit)
-        KeyboardFocusManager.getCurrentKeyboardFocusManager()
-            .addKeyEventDispatcher(e -> {
-                if (e.getID() == KeyEvent.KEY_PRESSED) {
-                    if (e.getKeyCode() == KeyEvent.VK_F11) {
-                        toggleFullscreen();
-                        return true;
-                    } else if (e.getKeyCode() == KeyEvent.VK_ESCAPE && isFullscreen) {
-                        exitFullscreen();
-                        return true;
+        // Finish an open recording before the JVM exits
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                CaptureEngine.getShared().shutdown();
+            }
+        });
+        
+        // Pause games while the launcher is minimised or in the background
+        if (!"false".equalsIgnoreCase(System.getProperty(AUTO_PAUSE_PROPERTY))) {
+            addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowIconified(WindowEvent e) {
+                    setGamesPaused(true);
+                }
+                
+                @Override
+                public void windowDeiconified(WindowEvent e) {
+                    setGamesPaused(!isFocused());
+                }
+            });
+            addWindowFocusListener(new WindowAdapter() {
+                @Override
+                public void windowLostFocus(WindowEvent e) {
+                    // The launcher's own dialogs are not the background
+                    if (!isOwnWindow(e.getOppositeWindow())) {
+                        setGamesPaused(true);
                     }
                 }
-                return false;
+                
+                @Override
+                public void windowGainedFocus(WindowEvent e) {
+                    setGamesPaused(false);
+                }
             });
+        }
+    }
+    
+    private boolean isOwnWindow(Window window) {
+        for (Window w = window; w != null; w = w.getOwner()) {
+            if (w == this) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private Component getCaptureSource() {
+        if (activeSession == null) {
+            return null;
+        }
+        Component game = activeSession.getGameComponent();
+        return game != null ? game : activeSession.getSurface();
+    }
+    
+    private void takeScreenshot() {
+        Component source = getCaptureSource();
+        if (source == null) {
+            statusLabel.setText("Screenshot: no game loaded");
+            return;
+        }
+        File file = CaptureEngine.getShared().screenshot(source);
+        statusLabel.setText(file != null ? "Screenshot saved: " + file.getName() : "Screenshot skipped (capture busy)");
+    }
+    
+    private void toggleRecording() {
+        CaptureEngine capture = CaptureEngine.getShared();
+        if (capture.isRecording()) {
+            File file = capture.stopRecording();
+            statusLabel.setText("Recording saved: " + file.getName() + " (" + capture.getDroppedFrames() + " frames dropped)");
+            return;
+        }
+        
+        Component source = getCaptureSource();
+        if (source == null) {
+            statusLabel.setText("Recording: no game loaded");
+            return;
+        }
+        File file = capture.startRecording(source, CaptureEngine.DEFAULT_FPS);
+        statusLabel.setText(file != null ? "Recording to " + file.getName() + " (F9 to stop)" : "Recording could not start");
+    }
+    
+    private void setGamesPaused(boolean pause) {
+        if (pause == VirtualClock.isPaused()) {
+            return;
+        }
+        
+        // Keys held when focus left would otherwise stay down in the game
+        keyMapper.releaseHeldKeys();
+        
+        // Frozen clock: game time stands still and game loops are held at
+        // their next sleep, so they stop producing frames until focus comes back
+        VirtualClock.setPaused(pause);
+        for (GameSession session : sessions) {
+            session.setPaused(pause);
+        }
+        setTitle(pause ? TITLE + " (paused)" : TITLE);
     }
     
     private JPanel createKeyMappingPanel() {
@@ -390,6 +631,7 @@ public class GameLauncher extends JFrame {
         
         pendingT9Key = t9Key;
         pendingLabel = label;
+        inputRouter.beginCapture(keyCaptureAction);
         
         // Highlight the button
         label.setBackground(new Color(255, 200, 0));
@@ -451,6 +693,7 @@ public class GameLauncher extends JFrame {
             // Clear pending state
             pendingT9Key = null;
             pendingLabel = null;
+            inputRouter.endCapture(keyCaptureAction);
             
             return true;
         }
@@ -483,6 +726,7 @@ public class GameLauncher extends JFrame {
         // Clear pending state
         pendingT9Key = null;
         pendingLabel = null;
+        inputRouter.endCapture(keyCaptureAction);
         
         return true;
     }
@@ -529,19 +773,8 @@ public class GameLauncher extends JFrame {
     private void setOrientation(GameOrientation orientation) {
         currentOrientation = orientation;
         
-        // Update game panel size
-        gamePanel.setPreferredSize(new Dimension(
-            orientation.getWidth(),
-            orientation.getHeight()
-        ));
-        gamePanel.setMinimumSize(new Dimension(
-            orientation.getWidth(),
-            orientation.getHeight()
-        ));
-        gamePanel.setMaximumSize(new Dimension(
-            orientation.getWidth(),
-            orientation.getHeight()
-        ));
+        // Update the size of every game tile
+        sizeSurfaces();
         
         // Update status
         String orientationType = orientation.isPortrait() ? "Portrait" : "Landscape";
@@ -560,6 +793,75 @@ public class GameLauncher extends JFrame {
         gamePanel.repaint();
     }
     
+    private void sizeSurface(JPanel surface) {
+        Dimension size = new Dimension(currentOrientation.getWidth(), currentOrientation.getHeight());
+        setSurfaceSize(surface, size);
+    }
+    
+    // The size is the game area; the tile's border goes around it
+    private void setSurfaceSize(JPanel surface, Dimension gameSize) {
+        Insets insets = surface.getInsets();
+        Dimension size = new Dimension(gameSize.width + insets.left + insets.right,
+            gameSize.height + insets.top + insets.bottom);
+        surface.setPreferredSize(size);
+        surface.setMinimumSize(size);
+        surface.setMaximumSize(size);
+    }
+    
+    /**
+     * Sizes a game's tile; in fullscreen, Swing games are upscaled to fill
+     * their share of the screen while still rendering at the phone size,
+     * and a rotated game's tile takes the turned shape
+     */
+    private void sizeSession(GameSession session) {
+        Dimension nativeSize = new Dimension(currentOrientation.getWidth(), currentOrientation.getHeight());
+        Dimension presented = session.isScalable() && (rotation & 1) == 1
+            ? new Dimension(nativeSize.height, nativeSize.width)
+            : nativeSize;
+        Dimension fitted = isFullscreen && session.isScalable() ? fittedSize(presented) : presented;
+        setSurfaceSize(session.getSurface(), fitted);
+        session.setNativeSize(nativeSize);
+    }
+    
+    /**
+     * Turns every game's output and the D-pad; a cheap remap per frame,
+     * the games themselves are not re-laid out
+     */
+    private void setRotation(int quarterTurns) {
+        rotation = quarterTurns;
+        updateKeyRotation();
+        for (GameSession session : sessions) {
+            session.setRotation(quarterTurns);
+        }
+        sizeSurfaces();
+        gamePanel.revalidate();
+        gamePanel.repaint();
+    }
+    
+    private void sizeSurfaces() {
+        sizeSurface(emptySurface);
+        for (GameSession session : sessions) {
+            sizeSession(session);
+        }
+    }
+    
+    /**
+     * Largest size with the game's aspect ratio that fits one tile of the
+     * screen the window is on; never smaller than the native size
+     */
+    private Dimension fittedSize(Dimension nativeSize) {
+        Rectangle screen = getGraphicsConfiguration().getBounds();
+        int columns = tileColumns();
+        int rows = tileRows();
+        double tileWidth = (screen.width - (double) TILE_GAP * (columns - 1)) / columns;
+        double tileHeight = (screen.height - (double) TILE_GAP * (rows - 1)) / rows;
+        double scale = Math.min(tileWidth / nativeSize.width, tileHeight / nativeSize.height);
+        if (scale <= 1) {
+            return nativeSize;
+        }
+        return new Dimension((int) (nativeSize.width * scale), (int) (nativeSize.height * scale));
+    }
+    
     private void toggleMode() {
         isPortraitMode = !isPortraitMode;
         modeToggleButton.setText(isPortraitMode ? "📱 Portrait" : "📞 Landscape");
@@ -607,7 +909,7 @@ public class GameLauncher extends JFrame {
         }
     }
     
-    private void loadGame() {
+    private void loadGame(boolean addSession) {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setFileFilter(new javax.swing.filechooser.FileFilter() {
             public boolean accept(File f) {
@@ -620,68 +922,157 @@ public class GameLauncher extends JFrame {
         
         int result = fileChooser.showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
-            currentGameJar = fileChooser.getSelectedFile();
-            launchGame(currentGameJar);
+            launchGame(fileChooser.getSelectedFile(), addSession);
         }
     }
     
-    private void launchGame(File jarFile) {
-        try {
-            String orientationType = currentOrientation.isPortrait() ? "Portrait" : "Landscape";
-            String sizeInfo = currentOrientation.getWidth() + "x" + currentOrientation.getHeight();
-            statusLabel.setText("Loading: " + jarFile.getName() + " | " + 
-                              orientationType + " (" + sizeInfo + ")");
+    private void launchGame(File jarFile, boolean addSession) {
+        String orientationType = currentOrientation.isPortrait() ? "Portrait" : "Landscape";
+        String sizeInfo = currentOrientation.getWidth() + "x" + currentOrientation.getHeight();
+        statusLabel.setText("Loading: " + jarFile.getName() + " | " + 
+                          orientationType + " (" + sizeInfo + ")");
             
-            // Clear previous game
-            gamePanel.removeAll();
+        // Try to find the main class before touching the running games
+        // This is a basic implementation - may need adjustment based on game type
+        long loadStart = System.nanoTime();
+        Telemetry.GameLoadEvent phase = Telemetry.beginLoadPhase(jarFile.getName(), "main-class");
+        String mainClass = findMainClass(jarFile);
+        phase.commit();
+        if (mainClass == null) {
+            statusLabel.setText("Error: Could not find main class | " + orientationType);
+            JOptionPane.showMessageDialog(this, 
+                "Could not find a valid main class in the JAR file.",
+                "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
             
-            // Load JAR and find main class
-            URLClassLoader classLoader = new URLClassLoader(
-                new URL[]{jarFile.toURI().toURL()},
-                this.getClass().getClassLoader()
-            );
+        // Loading replaces the selected game; adding opens a new tile
+        if (!addSession && activeSession != null) {
+            closeSession(activeSession);
+        }
             
-            // Try to find and instantiate the main class
-            // This is a basic implementation - may need adjustment based on game type
-            String mainClass = findMainClass(jarFile);
+        GameSession session = new GameSession(jarFile);
+        session.setDisplayMode(getDisplayMode());
+        session.setRotation(rotation);
+        sessions.add(session);
+        setActiveSession(session);
+        layoutTiles();
             
-            if (mainClass != null) {
-                Class<?> gameClass = classLoader.loadClass(mainClass);
-                Object gameInstance = gameClass.getDeclaredConstructor().newInstance();
-                
-                // If it's a JPanel or JFrame, add it to our display
-                if (gameInstance instanceof JPanel) {
-                    gamePanel.add((JPanel) gameInstance, BorderLayout.CENTER);
-                } else if (gameInstance instanceof JApplet) {
-                    JApplet applet = (JApplet) gameInstance;
-                    applet.init();
-                    applet.start();
-                    gamePanel.add(applet, BorderLayout.CENTER);
-                }
-                
-                gamePanel.revalidate();
-                gamePanel.repaint();
-                
-                statusLabel.setText("Game loaded: " + jarFile.getName() + 
-                                  " | " + orientationType + " (" + sizeInfo + ")");
-            } else {
-                statusLabel.setText("Error: Could not find main class | " + orientationType);
-                JOptionPane.showMessageDialog(this, 
-                    "Could not find a valid main class in the JAR file.",
-                    "Error", JOptionPane.ERROR_MESSAGE);
+        session.start(mainClass, started -> {
+            if (!sessions.contains(started)) {
+                return;
             }
-            
-        } catch (Exception ex) {
+            Telemetry.getShared().gameLoaded((System.nanoTime() - loadStart) / 1_000_000);
+            statusLabel.setText("Game loaded: " + jarFile.getName() + 
+                              " | " + orientationType + " (" + sizeInfo + ")");
+            // Applets are only known once loaded, and are not upscaled
+            sizeSession(started);
+            updateKeyRotation();
+            updateKeyRouting();
+            started.setPaused(VirtualClock.isPaused());
+            started.focusGame();
+        }, (failed, ex) -> {
+            if (!sessions.contains(failed)) {
+                return;
+            }
+            closeSession(failed);
             String errOrientationType = currentOrientation.isPortrait() ? "Portrait" : "Landscape";
             statusLabel.setText("Error loading game | " + errOrientationType);
             JOptionPane.showMessageDialog(this, 
                 "Error loading game: " + ex.getMessage(),
                 "Error", JOptionPane.ERROR_MESSAGE);
             ex.printStackTrace();
+        });
+    }
+    
+    private void closeSession(GameSession session) {
+        session.close();
+        sessions.remove(session);
+        if (activeSession == session) {
+            setActiveSession(sessions.isEmpty() ? null : sessions.get(sessions.size() - 1));
+        }
+        layoutTiles();
+        updateKeyRouting();
+    }
+    
+    private PixelConverter.Mode getDisplayMode() {
+        return PixelConverter.Mode.fromDisplayName((String) displayComboBox.getSelectedItem());
+    }
+    
+    private void setActiveSession(GameSession session) {
+        activeSession = session;
+        currentGameJar = session != null ? session.getJarFile() : null;
+        updateSurfaceBorders();
+        updateKeyRotation();
+        
+        // Show the cap of the newly selected game
+        int cap = session != null ? session.getAccount().getCpuCap() : 0;
+        cpuCapComboBox.setSelectedItem(cap == 0 ? "Off" : cap + "%");
+        updateUsageLabel();
+    }
+    
+    // Applets are shown upright, so their D-pad is not turned either
+    private void updateKeyRotation() {
+        keyMapper.setRotation(activeSession != null && activeSession.isScalable() ? rotation : 0);
+    }
+    
+    private void updateUsageLabel() {
+        usageLabel.setText(activeSession != null ? activeSession.getAccount().getSummary() : "");
+    }
+    
+    private void layoutTiles() {
+        // The tile count changes how far fullscreen tiles can scale
+        sizeSurfaces();
+        gamePanel.removeAll();
+        gamePanel.setLayout(new GridLayout(tileRows(), tileColumns(), TILE_GAP, TILE_GAP));
+        
+        if (sessions.isEmpty()) {
+            gamePanel.add(emptySurface);
+        } else {
+            for (GameSession session : sessions) {
+                gamePanel.add(session.getSurface());
+            }
+        }
+        
+        gamePanelWrapper.revalidate();
+        gamePanelWrapper.repaint();
+    }
+    
+    private int tileColumns() {
+        return Math.min(Math.max(1, sessions.size()), MAX_TILE_COLUMNS);
+    }
+    
+    private int tileRows() {
+        int columns = tileColumns();
+        return (Math.max(1, sessions.size()) + columns - 1) / columns;
+    }
+    
+    private void updateSurfaceBorders() {
+        for (GameSession session : sessions) {
+            // With several tiles, highlight the one receiving focus-routed keys
+            Color color = session == activeSession && sessions.size() > 1 ? new Color(255, 165, 0) : Color.GRAY;
+            session.getSurface().setBorder(isFullscreen ? null : BorderFactory.createLineBorder(color, 2));
+        }
+        emptySurface.setBorder(isFullscreen ? null : BorderFactory.createLineBorder(Color.GRAY, 2));
+    }
+    
+    private void updateKeyRouting() {
+        // Split keys: the main mapping drives the first game, the zone mapping the second
+        boolean split = splitKeyboardCheckBox.isSelected() && sessions.size() > 1;
+        keyMapper.setTarget(split ? sessions.get(0).getGameComponent() : null);
+        for (int i = 0; i < sessions.size(); i++) {
+            GameSession session = sessions.get(i);
+            if (split && i == 1) {
+                if (!session.hasKeyZone()) {
+                    session.setKeyZone(ZONE_KEY_MAPPING, inputRouter);
+                }
+            } else {
+                session.clearKeyZone();
+            }
         }
     }
     
-    private String findMainClass(File jarFile) {
+    static String findMainClass(File jarFile) {
         try (JarFile jar = new JarFile(jarFile)) {
             var manifest = jar.getManifest();
             if (manifest != null) {
@@ -710,13 +1101,12 @@ public class GameLauncher extends JFrame {
     }
     
     private void enterFullscreen() {
+        Telemetry.FullscreenTransitionEvent transition = Telemetry.beginFullscreenTransition(true);
+        
         // Hide all UI elements except the game panel
         controlPanel.setVisible(false);
         keyMappingPanel.setVisible(false);
         
-        // Remove border from game panel
-        gamePanel.setBorder(null);
-        
         // Set to fullscreen
         dispose();
         setUndecorated(true);
@@ -725,12 +1115,22 @@ public class GameLauncher extends JFrame {
         
         isFullscreen = true;
         
+        // ESC leaves fullscreen only while in it
+        inputRouter.bindHotkey(KeyEvent.VK_ESCAPE, this::exitFullscreen);
+        
+        // Remove borders from the game tiles and scale them up to the screen
+        updateSurfaceBorders();
+        sizeSurfaces();
+        
         // Center the game panel
         gamePanelWrapper.revalidate();
         gamePanelWrapper.repaint();
+        transition.commit();
     }
     
     private void exitFullscreen() {
+        Telemetry.FullscreenTransitionEvent transition = Telemetry.beginFullscreenTransition(false);
+        
         // Restore window decoration
         dispose();
         setUndecorated(false);
@@ -741,17 +1141,91 @@ public class GameLauncher extends JFrame {
         controlPanel.setVisible(true);
         keyMappingPanel.setVisible(true);
         
-        // Restore border on game panel
-        gamePanel.setBorder(BorderFactory.createLineBorder(Color.GRAY, 2));
-        
         isFullscreen = false;
+        inputRouter.unbindHotkey(KeyEvent.VK_ESCAPE);
+        
+        // Restore borders on the game tiles and their native size
+        updateSurfaceBorders();
+        sizeSurfaces();
         
         // Refresh layout
         revalidate();
         repaint();
+        transition.commit();
+    }
+    
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!firstFrameReported) {
+            firstFrameReported = true;
+            reportFirstFrame();
+        }
+    }
+    
+    private SettingsDialog getSettingsDialog() {
+        if (settingsDialog == null) {
+            settingsDialog = new SettingsDialog(this, keyMapper, inputRouter);
+        }
+        return settingsDialog;
+    }
+    
+    private ConfigPanel getConfigPanel() {
+        if (configPanel == null) {
+            configPanel = new ConfigPanel(this, keyMapper);
+        }
+        return configPanel;
+    }
+    
+    /**
+     * Milliseconds since the process started, so JVM boot and class loading count too
+     */
+    static long millisSinceStart() {
+        long start = ProcessHandle.current().info().startInstant()
+            .map(instant -> instant.toEpochMilli())
+            .orElse(STARTUP_MILLIS);
+        return System.currentTimeMillis() - start;
+    }
+    
+    private void reportFirstFrame() {
+        boolean archive = ManagementFactory.getRuntimeMXBean().getInputArguments().stream()
+            .anyMatch(arg -> arg.startsWith("-XX:SharedArchiveFile"));
+        System.out.println("Time to first frame: " + millisSinceStart() + " ms" +
+                           (archive ? " (AppCDS archive)" : ""));
+        
+        // Build the dialogs once the window is up, so opening them later is instant
+        SwingUtilities.invokeLater(() -> {
+            getSettingsDialog();
+            getConfigPanel();
+        });
+        
+        if (Boolean.getBoolean(TRAINING_PROPERTY)) {
+            // Everything needed to show the window is loaded now; the archive is written at exit
+            SwingUtilities.invokeLater(() -> System.exit(0));
+        }
     }
     
     public static void main(String[] args) {
+        if (Boolean.getBoolean(TRAINING_PROPERTY) && GraphicsEnvironment.isHeadless()) {
+            System.err.println("Warning: AppCDS training run needs a display; archive will only cover startup classes");
+            return;
+        }
+        
+        // Any arguments select kiosk mode, which skips the launcher UI entirely
+        if (args.length > 0) {
+            KioskLauncher kiosk;
+            try {
+                kiosk = KioskLauncher.fromArgs(args);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: " + e.getMessage());
+                System.err.println(KioskLauncher.USAGE);
+                System.exit(2);
+                return;
+            }
+            SwingUtilities.invokeLater(kiosk::start);
+            return;
+        }
+        
         SwingUtilities.invokeLater(() -> {
             GameLauncher launcher = new GameLauncher();
             launcher.setVisible(true);
@@ -0,0 +1,279 @@
+package com.wiggly;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-game CPU and allocation accounting
+ * Samples the threads of every game's thread group through ThreadMXBean
+ * and enforces optional CPU caps. A capped game is slowed down at its
+ * VirtualClock calls, which every game loop makes, by sleeping off the
+ * CPU time it used beyond its share. Painting and input the launcher
+ * hands a game on the event thread are timed and charged to its account
+ * too, but only the game's own threads are slowed down.
+ */
+public class GameMonitor {
+    
+    private static final long SAMPLE_INTERVAL_MS = 100;
+    private static final long MAX_THROTTLE_SLEEP_NANOS = 20_000_000L;
+    private static final long MAX_OWED_IDLE_NANOS = 1_000_000_000L;
+    private static final double SMOOTHING = 0.2;
+    
+    private static final GameMonitor SHARED = new GameMonitor();
+    
+    // Checked on every clock call, so the uncapped case costs one volatile read
+    private static volatile boolean anyCap;
+    
+    private final Map<ThreadGroup, Account> accounts = new ConcurrentHashMap<>();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final com.sun.management.ThreadMXBean allocations;
+    private Thread sampler;
+    private Thread[] scratch = new Thread[16];
+    
+    /**
+     * Resource usage of one game
+     */
+    public static final class Account {
+        private final ThreadGroup group;
+        private final Map<Long, long[]> lastByThread = new HashMap<>();
+        private final AtomicLong throttleDebtNanos = new AtomicLong();
+        private final AtomicLong eventThreadCpuNanos = new AtomicLong();
+        private long retiredCpuNanos;
+        private long retiredAllocatedBytes;
+        private long lastSampleNanos;
+        private long lastCpuNanos;
+        private long lastAllocatedBytes;
+        private long owedIdleNanos;
+        
+        private volatile int cpuCapPercent;
+        private volatile long cpuNanos;
+        private volatile long allocatedBytes;
+        private volatile double cpuPercent;
+        private volatile double allocationRate;
+        private volatile int threadCount;
+        
+        Account(ThreadGroup group) {
+            this.group = group;
+        }
+        
+        /**
+         * Limits the game to a share of one core; 0 removes the cap
+         */
+        public void setCpuCap(int percent) {
+            cpuCapPercent = Math.max(0, Math.min(100, percent));
+            if (cpuCapPercent == 0) {
+                throttleDebtNanos.set(0);
+            }
+            SHARED.updateAnyCap();
+        }
+        
+        /**
+         * Adds CPU time the game used on the event thread, which is in no game thread group
+         */
+        public void chargeEventThread(long cpuNanos) {
+            if (cpuNanos > 0) {
+                eventThreadCpuNanos.addAndGet(cpuNanos);
+            }
+        }
+        
+        public int getCpuCap() { return cpuCapPercent; }
+        public long getCpuNanos() { return cpuNanos; }
+        public long getAllocatedBytes() { return allocatedBytes; }
+        public double getCpuPercent() { return cpuPercent; }
+        public double getAllocationRate() { return allocationRate; }
+        public int getThreadCount() { return threadCount; }
+        
+        /**
+         * Short status text such as "CPU 35% | 1.2 MB/s | 3 threads"
+         */
+        public String getSummary() {
+            String summary = String.format("CPU %d%%", Math.round(cpuPercent));
+            if (cpuCapPercent > 0) {
+                summary += " (cap " + cpuCapPercent + "%)";
+            }
+            if (SHARED.allocations != null) {
+                summary += String.format(" | %.1f MB/s", allocationRate / (1024 * 1024));
+            }
+            return summary + " | " + threadCount + (threadCount == 1 ? " thread" : " threads");
+        }
+    }
+    
+    private GameMonitor() {
+        com.sun.management.ThreadMXBean allocationBean = null;
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            allocationBean = (com.sun.management.ThreadMXBean) threads;
+            if (allocationBean.isThreadAllocatedMemorySupported()) {
+                allocationBean.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                allocationBean = null;
+            }
+        }
+        this.allocations = allocationBean;
+        
+        if (threads.isThreadCpuTimeSupported()) {
+            threads.setThreadCpuTimeEnabled(true);
+        } else {
+            System.err.println("Warning: Thread CPU time is not supported; game CPU usage will read 0");
+        }
+    }
+    
+    public static GameMonitor getShared() {
+        return SHARED;
+    }
+    
+    /**
+     * Starts accounting for the threads of a game's thread group
+     */
+    public synchronized Account register(ThreadGroup group) {
+        Account account = new Account(group);
+        account.lastSampleNanos = System.nanoTime();
+        accounts.put(group, account);
+        
+        if (sampler == null) {
+            sampler = new Thread(this::runLoop, "wiggly-game-monitor");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+        return account;
+    }
+    
+    public synchronized void unregister(ThreadGroup group) {
+        accounts.remove(group);
+        updateAnyCap();
+    }
+    
+    /**
+     * CPU time of the calling thread, for charging event thread work; 0 if unsupported
+     */
+    public static long currentThreadCpuNanos() {
+        return SHARED.threads.isThreadCpuTimeEnabled() ? SHARED.threads.getCurrentThreadCpuTime() : 0;
+    }
+    
+    /**
+     * Called from the VirtualClock on game threads; sleeps if the game is over its cap
+     */
+    static void throttle() {
+        if (!anyCap) {
+            return;
+        }
+        Account account = SHARED.accounts.get(Thread.currentThread().getThreadGroup());
+        if (account == null || account.cpuCapPercent == 0) {
+            return;
+        }
+        
+        long debt = account.throttleDebtNanos.get();
+        while (debt > 0) {
+            long pause = Math.min(debt, MAX_THROTTLE_SLEEP_NANOS);
+            if (account.throttleDebtNanos.compareAndSet(debt, debt - pause)) {
+                try {
+                    Thread.sleep(pause / 1_000_000, (int) (pause % 1_000_000));
+                } catch (InterruptedException e) {
+                    // Keep the game's interrupt for its own code to see
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+            debt = account.throttleDebtNanos.get();
+        }
+    }
+    
+    private synchronized void updateAnyCap() {
+        boolean capped = false;
+        for (Account account : accounts.values()) {
+            capped |= account.cpuCapPercent > 0;
+        }
+        anyCap = capped;
+    }
+    
+    private void runLoop() {
+        while (true) {
+            try {
+                Thread.sleep(SAMPLE_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Account account : accounts.values()) {
+                sample(account);
+            }
+        }
+    }
+    
+    private void sample(Account account) {
+        int count = account.group.activeCount();
+        if (scratch.length < count * 2) {
+            scratch = new Thread[count * 2];
+        }
+        count = account.group.enumerate(scratch, true);
+        
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = scratch[i].getId();
+            scratch[i] = null;
+        }
+        long[] cpu = allocations != null ? allocations.getThreadCpuTime(ids) : cpuTimes(ids);
+        long[] allocated = allocations != null ? allocations.getThreadAllocatedBytes(ids) : new long[count];
+        
+        // Threads that exited keep their last reading in the retired totals
+        Map<Long, long[]> current = new HashMap<>();
+        long cpuTotal = 0;
+        long allocatedTotal = 0;
+        for (int i = 0; i < count; i++) {
+            if (cpu[i] < 0) {
+                continue;
+            }
+            current.put(ids[i], new long[]{cpu[i], allocated[i]});
+            cpuTotal += cpu[i];
+            allocatedTotal += Math.max(0, allocated[i]);
+        }
+        Iterator<Map.Entry<Long, long[]>> it = account.lastByThread.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, long[]> entry = it.next();
+            if (!current.containsKey(entry.getKey())) {
+                account.retiredCpuNanos += entry.getValue()[0];
+                account.retiredAllocatedBytes += Math.max(0, entry.getValue()[1]);
+                it.remove();
+            }
+        }
+        account.lastByThread.putAll(current);
+        cpuTotal += account.retiredCpuNanos + account.eventThreadCpuNanos.get();
+        allocatedTotal += account.retiredAllocatedBytes;
+        
+        long now = System.nanoTime();
+        long elapsed = Math.max(1, now - account.lastSampleNanos);
+        long cpuDelta = cpuTotal - account.lastCpuNanos;
+        long allocatedDelta = allocatedTotal - account.lastAllocatedBytes;
+        account.lastSampleNanos = now;
+        account.lastCpuNanos = cpuTotal;
+        account.lastAllocatedBytes = allocatedTotal;
+        
+        account.cpuNanos = cpuTotal;
+        account.allocatedBytes = allocatedTotal;
+        account.threadCount = count;
+        account.cpuPercent += SMOOTHING * (cpuDelta * 100.0 / elapsed - account.cpuPercent);
+        account.allocationRate += SMOOTHING * (allocatedDelta * 1e9 / elapsed - account.allocationRate);
+        
+        // Wall time this window's CPU use is entitled to under the cap, minus
+        // the time that actually passed, is idle time the game still owes
+        int cap = account.cpuCapPercent;
+        if (cap > 0) {
+            long owed = cpuDelta * 100 / cap - elapsed;
+            account.owedIdleNanos = Math.max(0, Math.min(MAX_OWED_IDLE_NANOS, account.owedIdleNanos + owed));
+            account.throttleDebtNanos.set(account.owedIdleNanos);
+        } else {
+            account.owedIdleNanos = 0;
+        }
+    }
+    
+    private long[] cpuTimes(long[] ids) {
+        long[] cpu = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            cpu[i] = threads.getThreadCpuTime(ids[i]);
+        }
+        return cpu;
+    }
+}
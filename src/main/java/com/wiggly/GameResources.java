@@ -0,0 +1,158 @@
+package com.wiggly;
+
+import javax.imageio.ImageIO;
+import java.applet.Applet;
+import java.applet.AudioClip;
+import java.awt.Image;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Targets of the ClassRewriter's resource redirects
+ * Game calls that load an image from a URL inside the game's own JAR are
+ * served from the launcher-wide ImageCache, so each asset is decoded once
+ * per library. Applet audio clips from the JAR play through the shared
+ * AudioEngine. Anything else, or anything the caches cannot decode, goes
+ * to the original call.
+ */
+public final class GameResources {
+    
+    private static final StackWalker STACK = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+    
+    private GameResources() {
+    }
+    
+    // --- Replacements for the redirected game calls ---
+    
+    public static BufferedImage read(URL url) throws IOException {
+        ImageCache.CachedImage cached = cachedImage(url);
+        if (cached == null) {
+            return ImageIO.read(url);
+        }
+        // ImageIO hands out a new image the game may draw on, so copy the pixels
+        BufferedImage image = new BufferedImage(cached.getWidth(), cached.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        image.getRaster().setDataElements(0, 0, cached.getWidth(), cached.getHeight(), cached.getPixels());
+        return image;
+    }
+    
+    public static Image getImage(Toolkit toolkit, URL url) {
+        // Toolkit images cannot be drawn on, so the shared image is safe to hand out
+        ImageCache.CachedImage cached = cachedImage(url);
+        return cached != null ? cached.getManagedImage() : toolkit.getImage(url);
+    }
+    
+    public static Image createImage(Toolkit toolkit, URL url) {
+        ImageCache.CachedImage cached = cachedImage(url);
+        return cached != null ? cached.getManagedImage() : toolkit.createImage(url);
+    }
+    
+    public static AudioClip newAudioClip(URL url) {
+        AudioClip clip = engineClip(url);
+        return clip != null ? clip : Applet.newAudioClip(url);
+    }
+    
+    public static AudioClip getAudioClip(Applet applet, URL url) {
+        AudioClip clip = engineClip(url);
+        return clip != null ? clip : applet.getAudioClip(url);
+    }
+    
+    public static AudioClip getAudioClip(Applet applet, URL url, String name) {
+        AudioClip clip = null;
+        try {
+            clip = engineClip(new URL(url, name));
+        } catch (MalformedURLException e) {
+            // Let the original call report it
+        }
+        return clip != null ? clip : applet.getAudioClip(url, name);
+    }
+    
+    /**
+     * Decoded pixels for a URL in the calling game's JAR, or null to use the original call
+     */
+    private static ImageCache.CachedImage cachedImage(URL url) {
+        GameClassLoader loader = callerLoader();
+        String path = loader != null && url != null ? loader.getResourcePath(url) : null;
+        if (path == null) {
+            return null;
+        }
+        try {
+            return loader.loadImagePixels(path);
+        } catch (IOException e) {
+            // Let the original call report it the usual way
+            return null;
+        }
+    }
+    
+    /**
+     * Engine-backed clip for a sound in the calling game's JAR, or null to use the original call
+     */
+    private static AudioClip engineClip(URL url) {
+        GameClassLoader loader = callerLoader();
+        String path = loader != null && url != null ? loader.getResourcePath(url) : null;
+        AudioEngine engine = path != null ? AudioEngine.getShared() : null;
+        if (engine == null) {
+            return null;
+        }
+        try {
+            return new EngineClip(engine, loader.loadSound(path), url);
+        } catch (IOException e) {
+            // Formats the SoundCache cannot decode keep the JDK clip
+            return null;
+        }
+    }
+    
+    /**
+     * Class loader of the game code that made the call, or null for launcher code
+     */
+    private static GameClassLoader callerLoader() {
+        ClassLoader loader = STACK.walk(frames -> frames
+            .map(StackWalker.StackFrame::getDeclaringClass)
+            .filter(type -> type != GameResources.class)
+            .findFirst()
+            .map(Class::getClassLoader)
+            .orElse(null));
+        return loader instanceof GameClassLoader ? (GameClassLoader) loader : null;
+    }
+    
+    /**
+     * AudioClip whose play() is mixed by the AudioEngine
+     * The engine has no looping voices, so loop() hands over to a JDK clip
+     * for the same URL, and stop() stops only that loop; one-shot sounds
+     * are short and finish on their own.
+     */
+    private static final class EngineClip implements AudioClip {
+        private final AudioEngine engine;
+        private final short[] samples;
+        private final URL url;
+        private AudioClip looping;
+        
+        EngineClip(AudioEngine engine, short[] samples, URL url) {
+            this.engine = engine;
+            this.samples = samples;
+            this.url = url;
+        }
+        
+        @Override
+        public void play() {
+            engine.play(samples, 100);
+        }
+        
+        @Override
+        public synchronized void loop() {
+            if (looping == null) {
+                looping = Applet.newAudioClip(url);
+            }
+            looping.loop();
+        }
+        
+        @Override
+        public synchronized void stop() {
+            if (looping != null) {
+                looping.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package com.wiggly;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Launcher-wide scheduler behind every GameTimer
+ * One wheel thread keeps the deadlines of all games' timer tasks in a
+ * hashed timing wheel of one-millisecond slots on the VirtualClock, so
+ * timers follow turbo and pause. It parks until the next occupied slot,
+ * and timers that are idle hold no threads. At the start of the millisecond
+ * a task is due in, it is handed to its timer's runner thread, which
+ * parks out the rest to the exact nanosecond deadline. As with
+ * java.util.Timer, each timer runs its tasks one at a time and timers run
+ * independently of each other. Runners are started on demand in the
+ * game's thread group, so CPU accounting, throttling and interrupts still
+ * apply, and retire after a few idle seconds. Unregistering a game
+ * cancels all of its tasks.
+ */
+public class GameScheduler {
+    
+    private static final int WHEEL_BITS = 9;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final long TICK_NANOS = 1_000_000L;
+    private static final long RUNNER_IDLE_MS = 5_000;
+    
+    private static final GameScheduler SHARED = new GameScheduler();
+    
+    /**
+     * Timers of one game
+     */
+    static final class Game {
+        private final ThreadGroup group;
+        private final String name;
+        private final Set<GameTimer> timers = new HashSet<>();
+        private int nextRunner = 1;
+        private boolean closed;
+        
+        Game(ThreadGroup group, String name) {
+            this.group = group;
+            this.name = name;
+        }
+        
+        synchronized boolean addTimer(GameTimer timer) {
+            if (closed) {
+                return false;
+            }
+            timers.add(timer);
+            return true;
+        }
+        
+        synchronized void removeTimer(GameTimer timer) {
+            timers.remove(timer);
+        }
+        
+        synchronized int getTimerCount() {
+            return timers.size();
+        }
+        
+        String getName() {
+            return name;
+        }
+        
+        ThreadGroup getGroup() {
+            return group;
+        }
+        
+        synchronized Runner newRunner() {
+            return new Runner(group, name + "-timer-" + nextRunner++);
+        }
+        
+        void close() {
+            List<GameTimer> cancelled;
+            synchronized (this) {
+                closed = true;
+                cancelled = new ArrayList<>(timers);
+                timers.clear();
+            }
+            for (GameTimer timer : cancelled) {
+                timer.cancel();
+            }
+        }
+    }
+    
+    /**
+     * Runs the due tasks of one timer in order on a thread of its game
+     * The thread is started when a task comes due and exits once the
+     * timer has been idle for a while or is cancelled.
+     */
+    static final class Runner implements Runnable {
+        private final ThreadGroup group;
+        private final String name;
+        private final ArrayDeque<GameTimerTask> due = new ArrayDeque<>();
+        private Thread thread;
+        private boolean closed;
+        
+        Runner(ThreadGroup group, String name) {
+            this.group = group;
+            this.name = name;
+        }
+        
+        synchronized void submit(GameTimerTask task) {
+            if (closed) {
+                return;
+            }
+            due.add(task);
+            if (thread == null) {
+                thread = new Thread(group, this, name);
+                thread.setDaemon(true);
+                thread.start();
+            } else {
+                notifyAll();
+            }
+        }
+        
+        synchronized void close() {
+            closed = true;
+            due.clear();
+            notifyAll();
+        }
+        
+        @Override
+        public void run() {
+            while (true) {
+                GameTimerTask task;
+                synchronized (this) {
+                    long idleUntil = System.currentTimeMillis() + RUNNER_IDLE_MS;
+                    while (due.isEmpty() && !closed) {
+                        long idle = idleUntil - System.currentTimeMillis();
+                        if (idle <= 0) {
+                            // Retire; the next due task starts a new thread
+                            thread = null;
+                            return;
+                        }
+                        try {
+                            wait(idle);
+                        } catch (InterruptedException e) {
+                            // Closing interrupts the game's threads; the loop checks why
+                        }
+                    }
+                    if (closed) {
+                        thread = null;
+                        return;
+                    }
+                    task = due.poll();
+                }
+                SHARED.execute(task);
+            }
+        }
+    }
+    
+    // Games by class loader; weak so a game that was never unregistered can still unload
+    private final Map<ClassLoader, Game> games = new WeakHashMap<>();
+    
+    // Tasks scheduled from any thread, moved into the wheel by the wheel thread
+    private final ConcurrentLinkedQueue<GameTimerTask> incoming = new ConcurrentLinkedQueue<>();
+    private volatile boolean purgeRequested;
+    private Thread wheelThread;
+    
+    // Wheel state, only touched by the wheel thread
+    private final GameTimerTask[] wheel = new GameTimerTask[WHEEL_SIZE];
+    private final long startNanos = VirtualClock.now();
+    private long tick;
+    private int pending;
+    
+    public static GameScheduler getShared() {
+        return SHARED;
+    }
+    
+    /**
+     * Starts tracking the timers created by a game's classes
+     */
+    public synchronized void register(ClassLoader loader, ThreadGroup group) {
+        games.put(loader, new Game(group, group.getName()));
+    }
+    
+    /**
+     * Cancels every timer and task of a game
+     * The game stays known as closed, so timers it creates while shutting
+     * down refuse new tasks instead of starting over.
+     */
+    public void unregister(ClassLoader loader) {
+        Game game;
+        synchronized (this) {
+            game = games.get(loader);
+        }
+        if (game != null) {
+            game.close();
+        }
+    }
+    
+    /**
+     * Returns the number of live timers of a registered game
+     */
+    public synchronized int getTimerCount(ClassLoader loader) {
+        Game game = games.get(loader);
+        return game != null ? game.getTimerCount() : 0;
+    }
+    
+    synchronized Game gameFor(ClassLoader loader) {
+        Game game = games.get(loader);
+        if (game == null) {
+            // Timers created outside a registered game run in the creator's thread group
+            game = new Game(Thread.currentThread().getThreadGroup(), "unregistered");
+            games.put(loader, game);
+        }
+        return game;
+    }
+    
+    void schedule(GameTimerTask task) {
+        incoming.add(task);
+        LockSupport.unpark(wheelThread());
+    }
+    
+    /**
+     * Asks the wheel thread to drop cancelled tasks now rather than when they come due
+     */
+    void purge() {
+        purgeRequested = true;
+        LockSupport.unpark(wheelThread());
+    }
+    
+    /**
+     * Wakes the wheel to work out its wait again after the clock's speed or pause changed
+     */
+    void clockChanged() {
+        Thread thread;
+        synchronized (this) {
+            thread = wheelThread;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+    
+    private synchronized Thread wheelThread() {
+        if (wheelThread == null) {
+            // Not in the thread group of whichever game got here first
+            ThreadGroup root = Thread.currentThread().getThreadGroup();
+            while (root.getParent() != null) {
+                root = root.getParent();
+            }
+            wheelThread = new Thread(root, this::runWheel, "wiggly-timer-wheel");
+            wheelThread.setDaemon(true);
+            wheelThread.setContextClassLoader(GameScheduler.class.getClassLoader());
+            wheelThread.start();
+        }
+        return wheelThread;
+    }
+    
+    private void runWheel() {
+        while (true) {
+            long now = VirtualClock.now();
+            long nowTick = Math.floorDiv(now - startNanos, TICK_NANOS);
+            // Ticks gone by with nothing in them need no visit
+            tick = Math.max(tick, Math.min(nextOccupiedTick(), nowTick));
+            
+            for (GameTimerTask task; (task = incoming.poll()) != null; ) {
+                place(task);
+            }
+            if (purgeRequested) {
+                purgeRequested = false;
+                dropCancelled();
+            }
+            
+            if (pending == 0) {
+                LockSupport.park(this);
+                continue;
+            }
+            long next = nextOccupiedTick();
+            if (next <= nowTick) {
+                tick = next;
+                expire((int) (tick & WHEEL_MASK));
+                tick++;
+                continue;
+            }
+            // Woken early by new tasks or a clock change, which the next pass handles
+            long wait = VirtualClock.toRealNanos(startNanos + next * TICK_NANOS - now);
+            if (wait == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, wait);
+            }
+        }
+    }
+    
+    /**
+     * Returns the first tick from the current one whose slot holds tasks,
+     * or Long.MAX_VALUE when the wheel is empty
+     */
+    private long nextOccupiedTick() {
+        if (pending == 0) {
+            return Long.MAX_VALUE;
+        }
+        for (long t = tick; t < tick + WHEEL_SIZE; t++) {
+            if (wheel[(int) (t & WHEEL_MASK)] != null) {
+                return t;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+    
+    /**
+     * Puts a task in the slot of the tick its deadline falls in
+     */
+    private void place(GameTimerTask task) {
+        if (!task.isLive()) {
+            task.timer.taskDone(task);
+            return;
+        }
+        long target = Math.max(Math.floorDiv(task.deadline - startNanos, TICK_NANOS), tick);
+        task.rounds = (target - tick) >>> WHEEL_BITS;
+        int slot = (int) (target & WHEEL_MASK);
+        task.next = wheel[slot];
+        wheel[slot] = task;
+        pending++;
+    }
+    
+    private void expire(int slot) {
+        GameTimerTask previous = null;
+        GameTimerTask task = wheel[slot];
+        while (task != null) {
+            GameTimerTask next = task.next;
+            boolean live = task.isLive();
+            if (live && task.rounds > 0) {
+                task.rounds--;
+                previous = task;
+            } else {
+                if (previous == null) {
+                    wheel[slot] = next;
+                } else {
+                    previous.next = next;
+                }
+                task.next = null;
+                pending--;
+                if (live) {
+                    task.timer.getRunner().submit(task);
+                } else {
+                    task.timer.taskDone(task);
+                }
+            }
+            task = next;
+        }
+    }
+    
+    private void dropCancelled() {
+        for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+            GameTimerTask previous = null;
+            GameTimerTask task = wheel[slot];
+            while (task != null) {
+                GameTimerTask next = task.next;
+                if (task.isLive()) {
+                    previous = task;
+                } else {
+                    if (previous == null) {
+                        wheel[slot] = next;
+                    } else {
+                        previous.next = next;
+                    }
+                    task.next = null;
+                    pending--;
+                    task.timer.taskDone(task);
+                }
+                task = next;
+            }
+        }
+    }
+    
+    /**
+     * Runs one due task on its timer's runner and puts a repeating task back
+     */
+    private void execute(GameTimerTask task) {
+        // Handed over up to a tick early; wait out the rest precisely
+        while (task.isLive()) {
+            if (VirtualClock.isPaused()) {
+                // Due tasks are held until the games resume
+                try {
+                    VirtualClock.awaitResume();
+                } catch (InterruptedException e) {
+                    // Closing interrupts the game's threads; the loop checks why
+                }
+                continue;
+            }
+            long early = task.deadline - VirtualClock.now();
+            if (early <= 0) {
+                break;
+            }
+            long wait = VirtualClock.toRealNanos(early);
+            if (wait != Long.MAX_VALUE) {
+                LockSupport.parkNanos(this, wait);
+            }
+        }
+        if (!task.begin(VirtualClock.now())) {
+            task.timer.taskDone(task);
+            return;
+        }
+        try {
+            task.run();
+        } catch (RuntimeException | Error e) {
+            // Like java.util.Timer, a failing task ends its timer
+            System.err.println("Error: Timer task of " + task.timer.getGame().getName() + " failed");
+            e.printStackTrace();
+            task.timer.cancel();
+            return;
+        }
+        if (task.period != 0 && task.isLive()) {
+            schedule(task);
+        } else {
+            task.timer.taskDone(task);
+        }
+    }
+}
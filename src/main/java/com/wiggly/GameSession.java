@@ -0,0 +1,310 @@
+package com.wiggly;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * One running game with its own class loader, thread group, render
+ * surface, resource account and optional keyboard zone
+ * Sessions share the launcher-wide image, sound and class caches, so
+ * running the same JAR twice does not decode or rewrite it twice.
+ */
+public class GameSession {
+    
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+    
+    private final int id;
+    private final File jarFile;
+    private final ThreadGroup threadGroup;
+    private final JPanel surface;
+    private final GameMonitor.Account account;
+    private volatile GameClassLoader classLoader;
+    private Component game;
+    private JLayer<JComponent> layer;
+    private final DisplayFilter displayFilter = new DisplayFilter();
+    private KeyboardMapper zoneMapper;
+    private InputRouter zoneRouter;
+    private volatile boolean closed;
+    private boolean paused;
+    
+    public GameSession(File jarFile) {
+        this.id = nextId.getAndIncrement();
+        this.jarFile = jarFile;
+        this.threadGroup = new ThreadGroup("wiggly-game-" + id);
+        this.account = GameMonitor.getShared().register(threadGroup);
+        this.displayFilter.setAccount(account);
+        
+        this.surface = new JPanel(new BorderLayout());
+        this.surface.setBackground(Color.BLACK);
+        this.surface.setBorder(BorderFactory.createLineBorder(Color.GRAY, 2));
+        this.surface.putClientProperty(Telemetry.GAME_SURFACE_PROPERTY, Boolean.TRUE);
+    }
+    
+    /**
+     * Loads the game off the event thread, then constructs and starts it on
+     * the event thread as Swing requires
+     * Threads the game starts still join the session's thread group, as the
+     * ClassRewriter gives it GameThread. Callbacks run on the event thread.
+     */
+    public void start(String mainClass, Consumer<GameSession> onStarted, BiConsumer<GameSession, Exception> onError) {
+        Thread starter = new Thread(threadGroup, () -> {
+            try {
+                String jarName = jarFile.getName();
+                Telemetry.GameLoadEvent phase = Telemetry.beginLoadPhase(jarName, "class-loader");
+                classLoader = new GameClassLoader(jarFile, GameSession.class.getClassLoader());
+                GameScheduler.getShared().register(classLoader, threadGroup);
+                phase.commit();
+                
+                Object[] created = new Object[1];
+                Exception[] failure = new Exception[1];
+                SwingUtilities.invokeAndWait(() -> {
+                    try {
+                        created[0] = createGame(mainClass, jarName);
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+                Object instance = created[0];
+                
+                SwingUtilities.invokeLater(() -> {
+                    if (closed) {
+                        // Closed while loading
+                        stopGame(instance);
+                        close();
+                        return;
+                    }
+                    // Like before, only Swing panels and applets can be shown
+                    if (instance instanceof JPanel || instance instanceof JApplet) {
+                        Telemetry.GameLoadEvent attachPhase = Telemetry.beginLoadPhase(jarName, "attach");
+                        attach((Component) instance);
+                        attachPhase.commit();
+                    }
+                    onStarted.accept(this);
+                });
+            } catch (Exception e) {
+                SwingUtilities.invokeLater(() -> onError.accept(this, e));
+            }
+        }, "wiggly-game-" + id + "-main");
+        starter.start();
+    }
+    
+    private Object createGame(String mainClass, String jarName) throws Exception {
+        Telemetry.GameLoadEvent phase = Telemetry.beginLoadPhase(jarName, "instantiate");
+        Object instance = classLoader.loadClass(mainClass).getDeclaredConstructor().newInstance();
+        phase.commit();
+        if (instance instanceof JApplet) {
+            phase = Telemetry.beginLoadPhase(jarName, "applet-init");
+            JApplet applet = (JApplet) instance;
+            applet.init();
+            applet.start();
+            phase.commit();
+        }
+        return instance;
+    }
+    
+    /**
+     * Stops the game and frees its class loader
+     */
+    public void close() {
+        closed = true;
+        clearKeyZone();
+        
+        if (game != null) {
+            stopGame(game);
+            surface.remove(layer != null ? layer : game);
+            game = null;
+            layer = null;
+        }
+        
+        // Cancel the game's timers, then wake game threads that are sleeping
+        // so they notice the shutdown
+        if (classLoader != null) {
+            GameScheduler.getShared().unregister(classLoader);
+        }
+        threadGroup.interrupt();
+        GameMonitor.getShared().unregister(threadGroup);
+        
+        if (classLoader != null) {
+            try {
+                classLoader.close();
+            } catch (IOException e) {
+                System.err.println("Warning: Could not close class loader for " + jarFile.getName());
+            }
+        }
+    }
+    
+    /**
+     * Pauses or resumes the game when the launcher loses or regains focus
+     * Applets get stop/start; everything else is held by the VirtualClock.
+     */
+    public void setPaused(boolean pause) {
+        if (pause == paused) {
+            return;
+        }
+        paused = pause;
+        if (zoneMapper != null) {
+            zoneMapper.releaseHeldKeys();
+        }
+        if (game instanceof JApplet) {
+            JApplet applet = (JApplet) game;
+            if (pause) {
+                applet.stop();
+            } else {
+                applet.start();
+            }
+        }
+    }
+    
+    public boolean isPaused() {
+        return paused;
+    }
+    
+    /**
+     * Gives this session its own keys, delivered directly to the game
+     * regardless of which session has focus
+     */
+    public void setKeyZone(Map<Integer, Integer> mapping, InputRouter router) {
+        clearKeyZone();
+        if (game == null) {
+            return;
+        }
+        zoneMapper = new KeyboardMapper(mapping, game);
+        zoneMapper.setRotation(isScalable() ? displayFilter.getRotation() : 0);
+        zoneRouter = router;
+        zoneRouter.addMapper(zoneMapper);
+    }
+    
+    public void clearKeyZone() {
+        if (zoneMapper != null) {
+            zoneRouter.removeMapper(zoneMapper);
+            zoneRouter = null;
+            zoneMapper.setEnabled(false);
+            zoneMapper.getRepeatEngine().shutdown();
+            zoneMapper = null;
+        }
+    }
+    
+    /**
+     * Sets the display filter mode; takes effect on the next repaint
+     */
+    public void setDisplayMode(PixelConverter.Mode mode) {
+        displayFilter.setMode(mode);
+        surface.repaint();
+    }
+    
+    /**
+     * Turns the game's output and its key zone clockwise by quarter turns;
+     * applets are not rotated
+     */
+    public void setRotation(int quarterTurns) {
+        displayFilter.setRotation(quarterTurns);
+        if (zoneMapper != null && isScalable()) {
+            zoneMapper.setRotation(quarterTurns);
+        }
+        if (layer != null) {
+            layer.revalidate();
+            layer.repaint();
+        }
+    }
+    
+    /**
+     * Renders the game at the given size and upscales it to fill the tile,
+     * or fills the tile directly when null; applets always fill the tile
+     */
+    public void setNativeSize(Dimension size) {
+        displayFilter.setNativeSize(size);
+        if (layer != null) {
+            layer.revalidate();
+            layer.repaint();
+        }
+    }
+    
+    public boolean isScalable() {
+        return !(game instanceof JApplet);
+    }
+    
+    public boolean hasKeyZone() {
+        return zoneMapper != null;
+    }
+    
+    public void focusGame() {
+        if (game != null) {
+            game.requestFocusInWindow();
+        }
+    }
+    
+    public boolean contains(Component component) {
+        return component != null && (component == surface || surface.isAncestorOf(component));
+    }
+    
+    public int getId() {
+        return id;
+    }
+    
+    public File getJarFile() {
+        return jarFile;
+    }
+    
+    public ThreadGroup getThreadGroup() {
+        return threadGroup;
+    }
+    
+    public GameMonitor.Account getAccount() {
+        return account;
+    }
+    
+    public GameClassLoader getClassLoader() {
+        return classLoader;
+    }
+    
+    public JPanel getSurface() {
+        return surface;
+    }
+    
+    public Component getGameComponent() {
+        return game;
+    }
+    
+    private void attach(Component component) {
+        game = component;
+        // Swing games are wrapped so the display filter sees their painting;
+        // applets are heavyweight containers and stay unfiltered
+        if (component instanceof JComponent) {
+            layer = new JLayer<>((JComponent) component, displayFilter);
+            surface.add(layer, BorderLayout.CENTER);
+        } else {
+            surface.add(component, BorderLayout.CENTER);
+        }
+        
+        // Clicking a tile gives its game the keyboard
+        component.setFocusable(true);
+        component.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                component.requestFocusInWindow();
+            }
+        });
+        
+        surface.revalidate();
+        surface.repaint();
+    }
+    
+    private static void stopGame(Object instance) {
+        if (instance instanceof JApplet) {
+            JApplet applet = (JApplet) instance;
+            applet.stop();
+            applet.destroy();
+        }
+    }
+}
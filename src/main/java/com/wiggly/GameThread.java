@@ -0,0 +1,62 @@
+package com.wiggly;
+
+/**
+ * Thread class the ClassRewriter gives game code in place of java.lang.Thread
+ * Threads created without an explicit group join the thread group of the
+ * game whose code created them, even when that code runs on the event
+ * thread, so CPU accounting, throttling and interrupts still apply.
+ */
+public class GameThread extends Thread {
+    
+    private static final StackWalker STACK = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+    
+    public GameThread() {
+        super(gameGroup(), (Runnable) null);
+    }
+    
+    public GameThread(Runnable target) {
+        super(gameGroup(), target);
+    }
+    
+    public GameThread(String name) {
+        super(gameGroup(), name);
+    }
+    
+    public GameThread(Runnable target, String name) {
+        super(gameGroup(), target, name);
+    }
+    
+    public GameThread(ThreadGroup group, Runnable target) {
+        super(group, target);
+    }
+    
+    public GameThread(ThreadGroup group, String name) {
+        super(group, name);
+    }
+    
+    public GameThread(ThreadGroup group, Runnable target, String name) {
+        super(group, target, name);
+    }
+    
+    public GameThread(ThreadGroup group, Runnable target, String name, long stackSize) {
+        super(group, target, name, stackSize);
+    }
+    
+    public GameThread(ThreadGroup group, Runnable target, String name, long stackSize, boolean inheritThreadLocals) {
+        super(group, target, name, stackSize, inheritThreadLocals);
+    }
+    
+    /**
+     * Thread group of the game that called the constructor
+     */
+    private static ThreadGroup gameGroup() {
+        // Skip this class and the constructors of game subclasses, which chain through here
+        ClassLoader loader = STACK.walk(frames -> frames
+            .filter(frame -> !GameThread.class.isAssignableFrom(frame.getDeclaringClass())
+                || frame.getDeclaringClass() != GameThread.class && !frame.getMethodName().equals("<init>"))
+            .findFirst()
+            .map(frame -> frame.getDeclaringClass().getClassLoader())
+            .orElse(null));
+        return GameScheduler.getShared().gameFor(loader).getGroup();
+    }
+}
@@ -0,0 +1,224 @@
+package com.wiggly;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drop-in java.util.Timer for hosted games, run by the GameScheduler
+ * The ClassRewriter turns a game's new Timer() into new GameTimer(), so
+ * its tasks wait on the launcher's shared timing wheel instead of on an
+ * idle thread of its own, and only hold a thread while they are due.
+ * The thread java.util.Timer starts in its constructor is cancelled
+ * straight away and exits. Tasks that are not GameTimerTasks,
+ * which only code outside the game can create, fall back to a real Timer.
+ */
+public class GameTimer extends Timer {
+    
+    // Deadlines further out than this are clamped so nanoTime arithmetic cannot overflow
+    private static final long MAX_DELAY_NANOS = Long.MAX_VALUE / 4;
+    
+    private static final StackWalker STACK = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+    
+    private final GameScheduler.Game game;
+    private final GameScheduler.Runner runner;
+    // Not the timer's own monitor, which the game may hold
+    private final Object lock = new Object();
+    
+    // Guarded by lock
+    private final Set<GameTimerTask> tasks = new HashSet<>();
+    private boolean cancelled;
+    private Timer fallback;
+    
+    public GameTimer() {
+        super(true);
+        super.cancel();
+        this.game = GameScheduler.getShared().gameFor(callerLoader());
+        this.runner = game.newRunner();
+        // A game that is being unloaded gets a timer that refuses tasks
+        this.cancelled = !game.addTimer(this);
+    }
+    
+    public GameTimer(boolean isDaemon) {
+        this();
+    }
+    
+    public GameTimer(String name) {
+        this();
+    }
+    
+    public GameTimer(String name, boolean isDaemon) {
+        this();
+    }
+    
+    /**
+     * Class loader of the code that created the timer, which identifies the game
+     */
+    private static ClassLoader callerLoader() {
+        return STACK.walk(frames -> frames
+            .map(StackWalker.StackFrame::getDeclaringClass)
+            .filter(type -> type != GameTimer.class)
+            .findFirst()
+            .map(Class::getClassLoader)
+            .orElse(null));
+    }
+    
+    @Override
+    public void schedule(TimerTask task, long delay) {
+        checkDelay(delay);
+        add(task, delay, 0, false);
+    }
+    
+    @Override
+    public void schedule(TimerTask task, Date time) {
+        add(task, delayUntil(time), 0, false);
+    }
+    
+    @Override
+    public void schedule(TimerTask task, long delay, long period) {
+        checkDelay(delay);
+        checkPeriod(period);
+        add(task, delay, period, false);
+    }
+    
+    @Override
+    public void schedule(TimerTask task, Date firstTime, long period) {
+        checkPeriod(period);
+        add(task, delayUntil(firstTime), period, false);
+    }
+    
+    @Override
+    public void scheduleAtFixedRate(TimerTask task, long delay, long period) {
+        checkDelay(delay);
+        checkPeriod(period);
+        add(task, delay, period, true);
+    }
+    
+    @Override
+    public void scheduleAtFixedRate(TimerTask task, Date firstTime, long period) {
+        checkPeriod(period);
+        add(task, delayUntil(firstTime), period, true);
+    }
+    
+    /**
+     * Discards every scheduled task; a running task finishes first
+     */
+    @Override
+    public void cancel() {
+        List<GameTimerTask> discarded;
+        Timer fallbackTimer;
+        synchronized (lock) {
+            cancelled = true;
+            discarded = new ArrayList<>(tasks);
+            tasks.clear();
+            fallbackTimer = fallback;
+        }
+        for (GameTimerTask task : discarded) {
+            task.discarded = true;
+        }
+        if (fallbackTimer != null) {
+            fallbackTimer.cancel();
+        }
+        runner.close();
+        game.removeTimer(this);
+        GameScheduler.getShared().purge();
+    }
+    
+    @Override
+    public int purge() {
+        int removed = 0;
+        Timer fallbackTimer;
+        synchronized (lock) {
+            for (var it = tasks.iterator(); it.hasNext(); ) {
+                if (!it.next().isLive()) {
+                    it.remove();
+                    removed++;
+                }
+            }
+            fallbackTimer = fallback;
+        }
+        if (removed > 0) {
+            GameScheduler.getShared().purge();
+        }
+        return removed + (fallbackTimer != null ? fallbackTimer.purge() : 0);
+    }
+    
+    GameScheduler.Game getGame() {
+        return game;
+    }
+    
+    GameScheduler.Runner getRunner() {
+        return runner;
+    }
+    
+    /**
+     * Forgets a task that has run for the last time or was cancelled
+     */
+    void taskDone(GameTimerTask task) {
+        synchronized (lock) {
+            tasks.remove(task);
+        }
+    }
+    
+    private void add(TimerTask task, long delay, long period, boolean fixedRate) {
+        long delayNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(delay), MAX_DELAY_NANOS);
+        long periodNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(period), MAX_DELAY_NANOS);
+        if (!(task instanceof GameTimerTask)) {
+            addFallback(task, delay, period, fixedRate);
+            return;
+        }
+        GameTimerTask gameTask = (GameTimerTask) task;
+        synchronized (lock) {
+            if (cancelled) {
+                throw new IllegalStateException("Timer already cancelled.");
+            }
+            gameTask.schedule(this, VirtualClock.now() + delayNanos, periodNanos, fixedRate);
+            tasks.add(gameTask);
+        }
+        GameScheduler.getShared().schedule(gameTask);
+    }
+    
+    private void addFallback(TimerTask task, long delay, long period, boolean fixedRate) {
+        Timer fallbackTimer;
+        synchronized (lock) {
+            if (cancelled) {
+                throw new IllegalStateException("Timer already cancelled.");
+            }
+            if (fallback == null) {
+                fallback = new Timer("wiggly-timer-fallback", true);
+            }
+            fallbackTimer = fallback;
+        }
+        if (period == 0) {
+            fallbackTimer.schedule(task, delay);
+        } else if (fixedRate) {
+            fallbackTimer.scheduleAtFixedRate(task, delay, period);
+        } else {
+            fallbackTimer.schedule(task, delay, period);
+        }
+    }
+    
+    private static void checkDelay(long delay) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Negative delay.");
+        }
+    }
+    
+    private static void checkPeriod(long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Non-positive period.");
+        }
+    }
+    
+    private static long delayUntil(Date time) {
+        if (time.getTime() < 0) {
+            throw new IllegalArgumentException("Illegal execution time.");
+        }
+        return Math.max(0, time.getTime() - VirtualClock.currentTimeMillis());
+    }
+}
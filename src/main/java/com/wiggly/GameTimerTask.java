@@ -0,0 +1,98 @@
+package com.wiggly;
+
+import java.util.TimerTask;
+
+/**
+ * Superclass the ClassRewriter gives game TimerTasks
+ * Keeps the schedule the GameScheduler needs and makes cancel() visible
+ * to it, which plain TimerTask state is not outside java.util. Each task
+ * is also its own link in the scheduler's timing wheel.
+ */
+public abstract class GameTimerTask extends TimerTask {
+    
+    private static final int VIRGIN = 0;
+    private static final int SCHEDULED = 1;
+    private static final int EXECUTED = 2;
+    private static final int CANCELLED = 3;
+    
+    // Not the task's own monitor, which the game may hold in run()
+    private final Object lock = new Object();
+    
+    // Guarded by lock
+    private int state = VIRGIN;
+    private long executionMillis;
+    
+    // Set once when scheduled
+    GameTimer timer;
+    long period;
+    boolean fixedRate;
+    
+    // Next run in VirtualClock time; owned by whichever thread holds the task
+    long deadline;
+    
+    // Wheel bookkeeping, only touched by the wheel thread
+    long rounds;
+    GameTimerTask next;
+    
+    // Set when the timer or the game is cancelled rather than the task
+    volatile boolean discarded;
+    
+    protected GameTimerTask() {
+    }
+    
+    @Override
+    public boolean cancel() {
+        boolean wasScheduled;
+        synchronized (lock) {
+            wasScheduled = state == SCHEDULED;
+            state = CANCELLED;
+        }
+        super.cancel();
+        return wasScheduled;
+    }
+    
+    @Override
+    public long scheduledExecutionTime() {
+        synchronized (lock) {
+            return executionMillis;
+        }
+    }
+    
+    void schedule(GameTimer timer, long deadline, long period, boolean fixedRate) {
+        synchronized (lock) {
+            if (state != VIRGIN) {
+                throw new IllegalStateException("Task already scheduled or cancelled");
+            }
+            this.timer = timer;
+            this.deadline = deadline;
+            this.period = period;
+            this.fixedRate = fixedRate;
+            this.state = SCHEDULED;
+        }
+    }
+    
+    boolean isLive() {
+        synchronized (lock) {
+            return state == SCHEDULED && !discarded;
+        }
+    }
+    
+    /**
+     * Claims one run of the task and moves a repeating task's deadline on
+     * Returns false when the task was cancelled while waiting.
+     */
+    boolean begin(long now) {
+        synchronized (lock) {
+            if (state != SCHEDULED || discarded) {
+                return false;
+            }
+            executionMillis = VirtualClock.toEpochMillis(deadline);
+            if (period == 0) {
+                state = EXECUTED;
+            } else {
+                deadline = fixedRate ? deadline + period : now + period;
+            }
+            return true;
+        }
+    }
+}
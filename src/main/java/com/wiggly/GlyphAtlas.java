@@ -0,0 +1,408 @@
+package com.wiggly;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DirectColorModel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Phone font rendered once into a glyph atlas
+ * Each of the small, medium and large fonts in plain, bold and italic
+ * is rasterised once, without antialiasing like a phone screen, into a
+ * grid of Latin-1 glyphs. Each text colour gets a strip of the glyphs
+ * tinted once, and text is drawn as one small image blit per glyph, so
+ * changing text such as scores allocates nothing and a screen of text
+ * costs about as much as the same number of sprites. String widths are
+ * memoised. Characters outside Latin-1 fall back to Java2D text.
+ * The ClassRewriter also sends games' Graphics.drawString calls here,
+ * which use an atlas of the current font for small, plain text.
+ */
+public class GlyphAtlas {
+    
+    // MIDP Font constants, so hosted code can pass them straight through
+    public static final int STYLE_PLAIN = 0;
+    public static final int STYLE_BOLD = 1;
+    public static final int STYLE_ITALIC = 2;
+    public static final int SIZE_SMALL = 8;
+    public static final int SIZE_MEDIUM = 0;
+    public static final int SIZE_LARGE = 16;
+    
+    // MIDP Graphics anchor constants
+    public static final int HCENTER = 1;
+    public static final int LEFT = 4;
+    public static final int RIGHT = 8;
+    public static final int TOP = 16;
+    public static final int BOTTOM = 32;
+    public static final int BASELINE = 64;
+    
+    private static final int GLYPHS = 256;
+    private static final int COLUMNS = 16;
+    private static final int TINT_CACHE_SIZE = 16;
+    private static final int WIDTH_CACHE_SIZE = 512;
+    
+    // One bit of alpha: pixels are either ink or transparent, which Java2D
+    // draws with a masked copy instead of a per-pixel blend
+    private static final DirectColorModel BITMASK = new DirectColorModel(25, 0xFF0000, 0xFF00, 0xFF, 0x1000000);
+    
+    private static final GlyphAtlas[] FONTS = new GlyphAtlas[3 * 4];
+    
+    // Atlases of the fonts games draw with, the least recently used dropped first
+    private static final int MAX_GAME_FONTS = 8;
+    private static final int MAX_GAME_FONT_SIZE = 16;
+    private static final LinkedHashMap<Font, GlyphAtlas> GAME_FONTS = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Font, GlyphAtlas> eldest) {
+            return size() > MAX_GAME_FONTS;
+        }
+    };
+    
+    private final Font font;
+    private final int cellWidth;
+    private final int cellHeight;
+    private final int ascent;
+    private final int[] advances = new int[GLYPHS];
+    
+    // Glyphs with no ink, such as space, are never blitted
+    private final boolean[] blank = new boolean[GLYPHS];
+    
+    // White glyphs on transparent, one cell per character
+    private final int atlasWidth;
+    private final int[] coverage;
+    
+    // Recently used text colours, the least recent replaced first; a plain
+    // array so looking up a colour never boxes it
+    private final Tint[] tints = new Tint[TINT_CACHE_SIZE];
+    private long tintClock;
+    
+    private final LinkedHashMap<String, Integer> widths = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > WIDTH_CACHE_SIZE;
+        }
+    };
+    
+    private GlyphAtlas(Font font) {
+        this.font = font;
+        
+        // Measure with a scratch image; the atlas itself is sized from the metrics
+        BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D measure = scratch.createGraphics();
+        FontMetrics metrics = measure.getFontMetrics(font);
+        measure.dispose();
+        int widest = 1;
+        for (int c = 0; c < GLYPHS; c++) {
+            advances[c] = metrics.charWidth((char) c);
+            widest = Math.max(widest, advances[c]);
+        }
+        // Italic glyphs lean past their advance
+        int overhang = (font.isItalic() ? metrics.getHeight() / 3 : 0) + 1;
+        this.cellWidth = widest + overhang;
+        this.cellHeight = metrics.getHeight();
+        this.ascent = metrics.getAscent();
+        
+        atlasWidth = cellWidth * COLUMNS;
+        int atlasHeight = cellHeight * (GLYPHS / COLUMNS);
+        BufferedImage atlas = new BufferedImage(atlasWidth, atlasHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = atlas.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+            g.setFont(font);
+            g.setColor(Color.WHITE);
+            char[] glyph = new char[1];
+            for (int c = 32; c < GLYPHS; c++) {
+                if (c >= 127 && c < 160) {
+                    continue; // control characters
+                }
+                glyph[0] = (char) c;
+                g.setClip(cellX(c), cellY(c), cellWidth, cellHeight);
+                g.drawChars(glyph, 0, 1, cellX(c), cellY(c) + ascent);
+            }
+        } finally {
+            g.dispose();
+        }
+        coverage = new int[atlasWidth * atlasHeight];
+        atlas.getRaster().getDataElements(0, 0, atlasWidth, atlasHeight, coverage);
+        for (int c = 0; c < GLYPHS; c++) {
+            blank[c] = true;
+            for (int row = 0; row < cellHeight && blank[c]; row++) {
+                int in = (cellY(c) + row) * atlasWidth + cellX(c);
+                for (int col = 0; col < cellWidth; col++) {
+                    if (coverage[in + col] != 0) {
+                        blank[c] = false;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the shared atlas for a MIDP style and size, creating it on first use
+     */
+    public static GlyphAtlas get(int style, int size) {
+        int sizeIndex = size == SIZE_SMALL ? 0 : size == SIZE_LARGE ? 2 : 1;
+        int styleIndex = style & (STYLE_BOLD | STYLE_ITALIC);
+        int index = sizeIndex * 4 + styleIndex;
+        synchronized (FONTS) {
+            if (FONTS[index] == null) {
+                int awtStyle = ((style & STYLE_BOLD) != 0 ? Font.BOLD : 0)
+                    | ((style & STYLE_ITALIC) != 0 ? Font.ITALIC : 0);
+                FONTS[index] = new GlyphAtlas(new Font(Font.SANS_SERIF, awtStyle, pixelSize(size)));
+            }
+            return FONTS[index];
+        }
+    }
+    
+    /**
+     * Replacement for the redirected Graphics.drawString(String, int, int) of games
+     * Text Java2D would draw as solid, unscaled pixels of one colour is
+     * drawn from the atlas of the current font; anything else, such as
+     * antialiased, transformed or large text, is drawn by Java2D as before.
+     */
+    public static void drawString(Graphics g, String text, int x, int y) {
+        GlyphAtlas atlas = text != null ? forGameText(g) : null;
+        if (atlas == null) {
+            g.drawString(text, x, y);
+            return;
+        }
+        atlas.drawString(g, text, x, y, BASELINE, g.getColor().getRGB());
+    }
+    
+    private static GlyphAtlas forGameText(Graphics g) {
+        Font font = g.getFont();
+        Color color = g.getColor();
+        if (font == null || font.getSize() > MAX_GAME_FONT_SIZE || font.isTransformed() || font.hasLayoutAttributes()
+                || color == null || color.getAlpha() != 255) {
+            return null;
+        }
+        if (g instanceof Graphics2D) {
+            Graphics2D g2 = (Graphics2D) g;
+            Object textAntialias = g2.getRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING);
+            boolean antialiased = textAntialias == RenderingHints.VALUE_TEXT_ANTIALIAS_DEFAULT || textAntialias == null
+                ? g2.getRenderingHint(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_ON
+                : textAntialias != RenderingHints.VALUE_TEXT_ANTIALIAS_OFF;
+            if (antialiased
+                    || g2.getRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS) == RenderingHints.VALUE_FRACTIONALMETRICS_ON
+                    || g2.getComposite() != AlphaComposite.SrcOver
+                    || g2.getPaint() != color
+                    || (g2.getTransform().getType() & ~AffineTransform.TYPE_TRANSLATION) != 0) {
+                return null;
+            }
+        }
+        synchronized (GAME_FONTS) {
+            return GAME_FONTS.computeIfAbsent(font, GlyphAtlas::new);
+        }
+    }
+    
+    private static int pixelSize(int size) {
+        return switch (size) {
+            case SIZE_SMALL -> 10;
+            case SIZE_LARGE -> 16;
+            default -> 12;
+        };
+    }
+    
+    public Font getFont() {
+        return font;
+    }
+    
+    public int getHeight() {
+        return cellHeight;
+    }
+    
+    public int getBaselinePosition() {
+        return ascent;
+    }
+    
+    public int charWidth(char c) {
+        return c < GLYPHS ? advances[c] : fallbackWidth(String.valueOf(c));
+    }
+    
+    /**
+     * Width of a string in pixels, memoised per string
+     */
+    public int stringWidth(String text) {
+        synchronized (widths) {
+            Integer cached = widths.get(text);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        int width = substringWidth(text, 0, text.length());
+        synchronized (widths) {
+            widths.put(text, width);
+        }
+        return width;
+    }
+    
+    public int substringWidth(String text, int offset, int length) {
+        int width = 0;
+        for (int i = offset; i < offset + length; i++) {
+            width += charWidth(text.charAt(i));
+        }
+        return width;
+    }
+    
+    /**
+     * Draws a string at a MIDP anchor point in the given 0xRRGGBB colour
+     */
+    public void drawString(Graphics g, String text, int x, int y, int anchor, int rgb) {
+        drawSubstring(g, text, 0, text.length(), x, y, anchor, rgb);
+    }
+    
+    public void drawSubstring(Graphics g, String text, int offset, int length, int x, int y, int anchor, int rgb) {
+        if ((anchor & (HCENTER | RIGHT)) != 0) {
+            int width = offset == 0 && length == text.length()
+                ? stringWidth(text)
+                : substringWidth(text, offset, length);
+            x -= (anchor & RIGHT) != 0 ? width : width / 2;
+        }
+        int top = top(y, anchor);
+        
+        Tint tint = tint(rgb);
+        for (int i = offset; i < offset + length; i++) {
+            char c = text.charAt(i);
+            if (c >= GLYPHS) {
+                drawFallback(g, c, x, top, rgb);
+            } else if (!blank[c]) {
+                g.drawImage(tint.glyph(c), x, top, null);
+            }
+            x += charWidth(c);
+        }
+    }
+    
+    public void drawChar(Graphics g, char c, int x, int y, int anchor, int rgb) {
+        int width = charWidth(c);
+        if ((anchor & (HCENTER | RIGHT)) != 0) {
+            x -= (anchor & RIGHT) != 0 ? width : width / 2;
+        }
+        int top = top(y, anchor);
+        if (c >= GLYPHS) {
+            drawFallback(g, c, x, top, rgb);
+        } else if (!blank[c]) {
+            g.drawImage(tint(rgb).glyph(c), x, top, null);
+        }
+    }
+    
+    private int top(int y, int anchor) {
+        if ((anchor & BASELINE) != 0) {
+            return y - ascent;
+        }
+        if ((anchor & BOTTOM) != 0) {
+            return y - cellHeight;
+        }
+        return y;
+    }
+    
+    private int cellX(int c) {
+        return (c % COLUMNS) * cellWidth;
+    }
+    
+    private int cellY(int c) {
+        return (c / COLUMNS) * cellHeight;
+    }
+    
+    /**
+     * All glyphs in one text colour, side by side in a single strip image
+     */
+    private final class Tint {
+        private final int rgb;
+        private final BufferedImage strip;
+        
+        // Views of each glyph's cell in the strip, made on first use
+        private final BufferedImage[] glyphs = new BufferedImage[GLYPHS];
+        private long lastUsed;
+        
+        Tint(int rgb) {
+            this.rgb = rgb;
+            int width = cellWidth * GLYPHS;
+            int[] pixels = new int[width * cellHeight];
+            int color = 0xFF000000 | rgb;
+            for (int c = 0; c < GLYPHS; c++) {
+                int sx = cellX(c);
+                int sy = cellY(c);
+                for (int row = 0; row < cellHeight; row++) {
+                    int in = (sy + row) * atlasWidth + sx;
+                    int out = row * width + c * cellWidth;
+                    for (int col = 0; col < cellWidth; col++) {
+                        // Glyphs are not antialiased, so any coverage is solid
+                        if (coverage[in + col] != 0) {
+                            pixels[out + col] = color;
+                        }
+                    }
+                }
+            }
+            strip = new BufferedImage(BITMASK, BITMASK.createCompatibleWritableRaster(width, cellHeight), false, null);
+            strip.getRaster().setDataElements(0, 0, width, cellHeight, pixels);
+        }
+        
+        BufferedImage glyph(char c) {
+            BufferedImage glyph = glyphs[c];
+            if (glyph == null) {
+                glyph = strip.getSubimage(c * cellWidth, 0, cellWidth, cellHeight);
+                glyphs[c] = glyph;
+            }
+            return glyph;
+        }
+    }
+    
+    /**
+     * The glyph strip for a text colour, keeping the most recently used colours
+     */
+    private Tint tint(int rgb) {
+        rgb &= 0xFFFFFF;
+        synchronized (tints) {
+            int oldest = 0;
+            for (int i = 0; i < TINT_CACHE_SIZE; i++) {
+                Tint tint = tints[i];
+                if (tint == null) {
+                    oldest = i;
+                    break;
+                }
+                if (tint.rgb == rgb) {
+                    tint.lastUsed = ++tintClock;
+                    return tint;
+                }
+                if (tint.lastUsed < tints[oldest].lastUsed) {
+                    oldest = i;
+                }
+            }
+            Tint tint = new Tint(rgb);
+            tint.lastUsed = ++tintClock;
+            tints[oldest] = tint;
+            return tint;
+        }
+    }
+    
+    private int fallbackWidth(String text) {
+        BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scratch.createGraphics();
+        try {
+            return g.getFontMetrics(font).stringWidth(text);
+        } finally {
+            g.dispose();
+        }
+    }
+    
+    /**
+     * Draws a character outside Latin-1 with Java2D
+     */
+    private void drawFallback(Graphics g, char c, int x, int top, int rgb) {
+        Font previousFont = g.getFont();
+        Color previousColor = g.getColor();
+        g.setFont(font);
+        g.setColor(new Color(rgb));
+        g.drawString(String.valueOf(c), x, top + ascent);
+        g.setFont(previousFont);
+        g.setColor(previousColor);
+    }
+}
@@ -0,0 +1,303 @@
+package com.wiggly;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Launcher-wide cache of decoded game images
+ * Pixels are kept as ARGB int arrays keyed by JAR hash and resource path,
+ * so an asset is decoded once per library instead of once per call.
+ * Memory use is bounded by a byte budget with LRU eviction, and an
+ * optional disk tier keeps raw decoded pixels between sessions.
+ */
+public class ImageCache {
+    
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+    
+    // Set to a directory path to enable the disk tier
+    public static final String DISK_DIR_PROPERTY = "wiggly.imagecache.dir";
+    
+    private static final int DISK_MAGIC = 0x57415247; // "WARG"
+    private static final int DISK_HEADER_BYTES = 16;
+    
+    private static final ImageCache SHARED = new ImageCache(DEFAULT_MEMORY_BUDGET, diskDirFromProperty());
+    
+    /**
+     * Source of raw encoded image bytes, usually a game's class loader
+     */
+    public interface ResourceSource {
+        InputStream open(String path) throws IOException;
+    }
+    
+    /**
+     * Decoded pixels of one image
+     * The pixel array is shared between all users and must not be modified
+     */
+    public static final class CachedImage {
+        private final int width;
+        private final int height;
+        private final int[] pixels;
+        
+        // Shared managed copy of the pixels, made on first use
+        private volatile BufferedImage managed;
+        
+        CachedImage(int width, int height, int[] pixels) {
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+        
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+        public int[] getPixels() { return pixels; }
+        
+        // Counts the managed copy too, so the budget holds once it is made
+        public long getByteSize() { return (long) pixels.length * 8; }
+        
+        /**
+         * Returns the one image of these pixels that all users share
+         * The pixels are copied into it once, through the raster, so Java2D
+         * can keep it in video memory for sprites drawn every frame.
+         * Callers must treat it as immutable.
+         */
+        public BufferedImage getManagedImage() {
+            BufferedImage image = managed;
+            if (image == null) {
+                synchronized (this) {
+                    image = managed;
+                    if (image == null) {
+                        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                        image.getRaster().setDataElements(0, 0, width, height, pixels);
+                        managed = image;
+                    }
+                }
+            }
+            return image;
+        }
+    }
+    
+    private final LinkedHashMap<String, CachedImage> entries;
+    private final long memoryBudget;
+    private final File diskDir;
+    private long usedBytes;
+    
+    private long hits;
+    private long diskHits;
+    private long misses;
+    
+    public ImageCache(long memoryBudget, File diskDir) {
+        this.entries = new LinkedHashMap<>(64, 0.75f, true);
+        this.memoryBudget = memoryBudget;
+        this.diskDir = diskDir;
+    }
+    
+    public static ImageCache getShared() {
+        return SHARED;
+    }
+    
+    /**
+     * Returns the decoded image, loading it from disk or decoding it on a miss
+     */
+    public CachedImage get(String jarHash, String path, ResourceSource source) throws IOException {
+        String key = jarHash + ":" + path;
+        
+        synchronized (this) {
+            CachedImage cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+        }
+        
+        // Decode outside the lock; a concurrent miss on the same key only wastes one decode
+        CachedImage image = readFromDisk(jarHash, path);
+        if (image != null) {
+            synchronized (this) {
+                diskHits++;
+            }
+        } else {
+            image = decode(path, source);
+            writeToDisk(jarHash, path, image);
+            synchronized (this) {
+                misses++;
+            }
+        }
+        
+        synchronized (this) {
+            CachedImage existing = entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            entries.put(key, image);
+            usedBytes += image.getByteSize();
+            evict();
+        }
+        return image;
+    }
+    
+    /**
+     * Drops all in-memory entries of one JAR
+     */
+    public synchronized void invalidate(String jarHash) {
+        String prefix = jarHash + ":";
+        Iterator<Map.Entry<String, CachedImage>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, CachedImage> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                usedBytes -= entry.getValue().getByteSize();
+                it.remove();
+            }
+        }
+    }
+    
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+    
+    public synchronized long getUsedBytes() { return usedBytes; }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getDiskHits() { return diskHits; }
+    public synchronized long getMisses() { return misses; }
+    
+    private void evict() {
+        Iterator<CachedImage> it = entries.values().iterator();
+        // Always keep the most recent entry, even if it alone exceeds the budget
+        while (usedBytes > memoryBudget && entries.size() > 1 && it.hasNext()) {
+            usedBytes -= it.next().getByteSize();
+            it.remove();
+        }
+    }
+    
+    private static CachedImage decode(String path, ResourceSource source) throws IOException {
+        try (InputStream in = source.open(path)) {
+            if (in == null) {
+                throw new IOException("Image not found: " + path);
+            }
+            BufferedImage decoded = ImageIO.read(in);
+            if (decoded == null) {
+                throw new IOException("Unsupported image format: " + path);
+            }
+            int width = decoded.getWidth();
+            int height = decoded.getHeight();
+            int[] pixels = decoded.getRGB(0, 0, width, height, null, 0, width);
+            return new CachedImage(width, height, pixels);
+        }
+    }
+    
+    private CachedImage readFromDisk(String jarHash, String path) {
+        if (diskDir == null) {
+            return null;
+        }
+        File file = diskFile(jarHash, path);
+        if (!file.isFile()) {
+            return null;
+        }
+        
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // Read rather than map, so the file can still be replaced while the JVM runs on Windows
+            long size = channel.size();
+            if (size < DISK_HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading
+            }
+            buffer.flip();
+            
+            int magic = buffer.getInt();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int pathLength = buffer.getInt();
+            if (magic != DISK_MAGIC || width <= 0 || height <= 0 || pathLength < 0
+                    || size != DISK_HEADER_BYTES + pathLength + (long) width * height * 4) {
+                return null;
+            }
+            
+            // The full path is stored to rule out hash collisions in the file name
+            byte[] storedPath = new byte[pathLength];
+            buffer.get(storedPath);
+            if (!path.equals(new String(storedPath, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            
+            int[] pixels = new int[width * height];
+            buffer.asIntBuffer().get(pixels);
+            return new CachedImage(width, height, pixels);
+        } catch (IOException e) {
+            System.err.println("Warning: Could not read cached image " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private void writeToDisk(String jarHash, String path, CachedImage image) {
+        if (diskDir == null) {
+            return;
+        }
+        File file = diskFile(jarHash, path);
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        
+        ByteBuffer buffer = ByteBuffer.allocate(DISK_HEADER_BYTES + pathBytes.length + image.pixels.length * 4)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(DISK_MAGIC).putInt(image.width).putInt(image.height).putInt(pathBytes.length);
+        buffer.put(pathBytes);
+        buffer.asIntBuffer().put(image.pixels);
+        buffer.rewind();
+        
+        try {
+            Files.createDirectories(diskDir.toPath());
+            // Write to a temporary file first so readers never see a partial entry
+            File temp = new File(diskDir, file.getName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Warning: Could not write cached image " + file + ": " + e.getMessage());
+        }
+    }
+    
+    private File diskFile(String jarHash, String path) {
+        return new File(diskDir, jarHash + "-" + sha256(path).substring(0, 16) + ".argb");
+    }
+    
+    /**
+     * Hex SHA-256 of a string, used for cache keys and file names
+     */
+    static String sha256(String text) {
+        return sha256(text.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    private static File diskDirFromProperty() {
+        String dir = System.getProperty(DISK_DIR_PROPERTY);
+        return dir != null && !dir.isEmpty() ? new File(dir) : null;
+    }
+}
@@ -0,0 +1,214 @@
+package com.wiggly;
+
+import java.awt.KeyEventDispatcher;
+import java.awt.KeyboardFocusManager;
+import java.awt.event.KeyEvent;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The launcher's single key event dispatcher
+ * Key mappings, macro triggers, hotkeys and key capture are compiled into
+ * one table indexed by key code. Changing a binding or mode builds a new
+ * table and swaps it in, so each event costs one array lookup.
+ */
+public class InputRouter implements KeyEventDispatcher {
+    
+    /**
+     * Handles one key event; returns true if the event was consumed
+     */
+    public interface KeyAction {
+        boolean handle(KeyEvent e);
+    }
+    
+    private static final int MIN_TABLE_SIZE = 256;
+    
+    // Key codes at or above this are not routed; AWT key codes all fit below it
+    private static final int MAX_TABLE_SIZE = 0x10000;
+    
+    /**
+     * Immutable compiled routing for one mode
+     */
+    private static final class Table {
+        static final Table EMPTY = new Table(new KeyAction[0], null);
+        
+        final KeyAction[] actions;  // key code -> action, or null
+        final KeyAction fallback;   // keys without an action, or null
+        
+        Table(KeyAction[] actions, KeyAction fallback) {
+            this.actions = actions;
+            this.fallback = fallback;
+        }
+    }
+    
+    private final List<KeyboardMapper> mappers = new ArrayList<>();
+    private final Map<Integer, Runnable> hotkeys = new LinkedHashMap<>();
+    private final Deque<KeyAction> captures = new ArrayDeque<>();
+    private volatile Table table = Table.EMPTY;
+    private boolean installed;
+    
+    /**
+     * Registers the router with the focus manager in place of any other dispatcher
+     */
+    public synchronized void install() {
+        if (!installed) {
+            KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(this);
+            installed = true;
+        }
+    }
+    
+    public synchronized void uninstall() {
+        if (installed) {
+            KeyboardFocusManager.getCurrentKeyboardFocusManager().removeKeyEventDispatcher(this);
+            installed = false;
+        }
+    }
+    
+    @Override
+    public boolean dispatchKeyEvent(KeyEvent e) {
+        Table t = table;
+        int keyCode = e.getKeyCode();
+        KeyAction action = keyCode >= 0 && keyCode < t.actions.length ? t.actions[keyCode] : null;
+        if (action == null) {
+            action = t.fallback;
+        }
+        return action != null && action.handle(e);
+    }
+    
+    /**
+     * Routes a mapper's mapped keys and macro triggers to it
+     * Mappers added first win keys that several mappers bind.
+     */
+    public synchronized void addMapper(KeyboardMapper mapper) {
+        if (!mappers.contains(mapper)) {
+            mappers.add(mapper);
+            mapper.setBindingsListener(this::rebuild);
+            rebuild();
+        }
+    }
+    
+    public synchronized void removeMapper(KeyboardMapper mapper) {
+        if (mappers.remove(mapper)) {
+            mapper.setBindingsListener(null);
+            rebuild();
+        }
+    }
+    
+    /**
+     * Runs an action when a key is pressed, unless a mapper consumes the key first
+     */
+    public synchronized void bindHotkey(int keyCode, Runnable action) {
+        hotkeys.put(keyCode, action);
+        rebuild();
+    }
+    
+    public synchronized void unbindHotkey(int keyCode) {
+        if (hotkeys.remove(keyCode) != null) {
+            rebuild();
+        }
+    }
+    
+    /**
+     * Sends every key to the handler ahead of the normal routing until
+     * endCapture is called; the latest capture wins
+     */
+    public synchronized void beginCapture(KeyAction handler) {
+        captures.remove(handler);
+        captures.push(handler);
+        rebuild();
+    }
+    
+    public synchronized void endCapture(KeyAction handler) {
+        if (captures.remove(handler)) {
+            rebuild();
+        }
+    }
+    
+    public synchronized boolean isCapturing() {
+        return !captures.isEmpty();
+    }
+    
+    /**
+     * Recompiles the routing table; called whenever a binding changes
+     */
+    public synchronized void rebuild() {
+        List<Map<Integer, KeyAction>> layers = new ArrayList<>();
+        int highest = MIN_TABLE_SIZE - 1;
+        
+        for (KeyboardMapper mapper : mappers) {
+            Map<Integer, KeyAction> layer = new LinkedHashMap<>();
+            KeyAction action = mapper::dispatchKeyEvent;
+            for (int keyCode : mapper.getBoundKeys()) {
+                layer.put(keyCode, action);
+            }
+            layers.add(layer);
+        }
+        Map<Integer, KeyAction> hotkeyLayer = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Runnable> entry : hotkeys.entrySet()) {
+            Runnable action = entry.getValue();
+            hotkeyLayer.put(entry.getKey(), e -> {
+                if (e.getID() != KeyEvent.KEY_PRESSED) {
+                    return false;
+                }
+                action.run();
+                return true;
+            });
+        }
+        layers.add(hotkeyLayer);
+        
+        for (Map<Integer, KeyAction> layer : layers) {
+            for (int keyCode : layer.keySet()) {
+                if (keyCode < MAX_TABLE_SIZE) {
+                    highest = Math.max(highest, keyCode);
+                }
+            }
+        }
+        
+        // Layers earlier in the list see a key first; a later layer only gets
+        // the event if the earlier ones did not consume it
+        KeyAction[] actions = new KeyAction[highest + 1];
+        for (Map<Integer, KeyAction> layer : layers) {
+            for (Map.Entry<Integer, KeyAction> entry : layer.entrySet()) {
+                int keyCode = entry.getKey();
+                if (keyCode >= 0 && keyCode < actions.length) {
+                    actions[keyCode] = chain(actions[keyCode], entry.getValue());
+                }
+            }
+        }
+        
+        // Unbound presses still break partly typed macro sequences
+        KeyAction fallback = null;
+        for (KeyboardMapper mapper : mappers) {
+            fallback = chain(fallback, e -> {
+                mapper.unboundKey(e);
+                return false;
+            });
+        }
+        
+        // Capture mode puts the capture handler in front of every slot; events
+        // it lets through, such as releases of held keys, route as normal
+        KeyAction capture = captures.peek();
+        if (capture != null) {
+            for (int i = 0; i < actions.length; i++) {
+                actions[i] = chain(capture, actions[i]);
+            }
+            fallback = chain(capture, fallback);
+        }
+        
+        table = new Table(actions, fallback);
+    }
+    
+    private static KeyAction chain(KeyAction first, KeyAction second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        return e -> first.handle(e) || second.handle(e);
+    }
+}
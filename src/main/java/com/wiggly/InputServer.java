@@ -0,0 +1,228 @@
+package com.wiggly;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loopback UDP input server for external controllers
+ * Controller boards and phone apps send fixed-size packets to
+ * 127.0.0.1; each packet is decoded into a key press or release and fed
+ * straight into a KeyboardMapper on one non-blocking NIO thread. The
+ * receive path reuses a single buffer, so it never allocates per packet.
+ *
+ * Packet layout, 16 bytes, big-endian:
+ *   0  magic 'W' 'K'
+ *   2  version (1)
+ *   3  controller id (0-15), each with its own sequence
+ *   4  sequence number, unsigned; 0 restarts the sequence
+ *   8  key code (a keyboard key, translated by the mapping)
+ *   12 action: 1 press, 0 release
+ *   13 reserved (3 bytes)
+ *
+ * Packets older than the newest seen from their controller are dropped,
+ * so a late press can never arrive after its release.
+ */
+public class InputServer {
+    
+    // Port to listen on; the server only starts when this is set
+    public static final String PORT_PROPERTY = "wiggly.input.port";
+    
+    public static final int DEFAULT_PORT = 47800;
+    public static final int PACKET_SIZE = 16;
+    public static final int MAX_CONTROLLERS = 16;
+    
+    private static final byte MAGIC_0 = 'W';
+    private static final byte MAGIC_1 = 'K';
+    private static final byte VERSION = 1;
+    
+    private final KeyboardMapper keyMapper;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final Thread thread;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(PACKET_SIZE + 1);
+    
+    // Sequence tracking, only touched on the server thread
+    private final int[] lastSequence = new int[MAX_CONTROLLERS];
+    private final boolean[] seen = new boolean[MAX_CONTROLLERS];
+    
+    private final AtomicLong packetsAccepted = new AtomicLong();
+    private final AtomicLong packetsDropped = new AtomicLong();
+    private volatile boolean running = true;
+    
+    public InputServer(KeyboardMapper keyMapper, int port) throws IOException {
+        this.keyMapper = keyMapper;
+        this.selector = Selector.open();
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            selector.close();
+            throw e;
+        }
+        
+        thread = new Thread(this::runLoop, "wiggly-input-server");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+    
+    /**
+     * Starts a server for the mapper if the port property is set; returns null otherwise
+     */
+    public static InputServer startIfConfigured(KeyboardMapper keyMapper) {
+        String port = System.getProperty(PORT_PROPERTY);
+        if (port == null) {
+            return null;
+        }
+        try {
+            int number = port.isBlank() ? DEFAULT_PORT : Integer.parseInt(port.trim());
+            InputServer server = new InputServer(keyMapper, number);
+            System.out.println("Controller input server listening on 127.0.0.1:" + server.getPort());
+            return server;
+        } catch (NumberFormatException | IOException e) {
+            System.err.println("Warning: Could not start controller input server on port " + port);
+            e.printStackTrace();
+            return null;
+        }
+    }
+    
+    public int getPort() {
+        try {
+            return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+    
+    public long getPacketsAccepted() {
+        return packetsAccepted.get();
+    }
+    
+    public long getPacketsDropped() {
+        return packetsDropped.get();
+    }
+    
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void runLoop() {
+        try {
+            while (running) {
+                selector.select();
+                selector.selectedKeys().clear();
+                drain();
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Error: Controller input server stopped");
+                e.printStackTrace();
+            }
+        } finally {
+            try {
+                channel.close();
+                selector.close();
+            } catch (IOException e) {
+                // Shutting down anyway
+            }
+        }
+    }
+    
+    private void drain() throws IOException {
+        while (true) {
+            buffer.clear();
+            if (channel.receive(buffer) == null) {
+                return;
+            }
+            buffer.flip();
+            if (!handlePacket(buffer)) {
+                packetsDropped.incrementAndGet();
+            }
+        }
+    }
+    
+    private boolean handlePacket(ByteBuffer packet) {
+        // The buffer is one byte larger, so oversized datagrams show up here
+        if (packet.remaining() != PACKET_SIZE
+                || packet.get(0) != MAGIC_0 || packet.get(1) != MAGIC_1 || packet.get(2) != VERSION) {
+            return false;
+        }
+        int controller = packet.get(3);
+        if (controller < 0 || controller >= MAX_CONTROLLERS) {
+            return false;
+        }
+        int sequence = packet.getInt(4);
+        int keyCode = packet.getInt(8);
+        byte action = packet.get(12);
+        if (action != 0 && action != 1) {
+            return false;
+        }
+        
+        // Newer means ahead within half the sequence space, so it survives wrap-around
+        if (seen[controller] && sequence != 0 && sequence - lastSequence[controller] <= 0) {
+            return false;
+        }
+        seen[controller] = true;
+        lastSequence[controller] = sequence;
+        
+        keyMapper.injectKey(keyCode, action == 1);
+        packetsAccepted.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * Stand-in controller for testing: presses and releases each key in turn
+     * Usage: java -cp wiggly-launcher.jar com.wiggly.InputServer [--port N] KEY...
+     */
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        int first = 0;
+        if (args.length >= 2 && args[0].equals("--port")) {
+            port = Integer.parseInt(args[1]);
+            first = 2;
+        }
+        if (first >= args.length) {
+            System.err.println("Usage: java -cp wiggly-launcher.jar com.wiggly.InputServer [--port N] KEY...");
+            System.exit(2);
+        }
+        
+        InetSocketAddress server = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        ByteBuffer packet = ByteBuffer.allocate(PACKET_SIZE);
+        int sequence = 0;
+        try (DatagramChannel client = DatagramChannel.open()) {
+            for (int i = first; i < args.length; i++) {
+                Integer keyCode = KeyProfile.keyCode(args[i]);
+                if (keyCode == null) {
+                    System.err.println("Unknown key: " + args[i]);
+                    continue;
+                }
+                for (int action = 1; action >= 0; action--) {
+                    packet.clear();
+                    packet.put(MAGIC_0).put(MAGIC_1).put(VERSION).put((byte) 0);
+                    packet.putInt(++sequence).putInt(keyCode).put((byte) action);
+                    packet.put((byte) 0).put((byte) 0).put((byte) 0);
+                    packet.flip();
+                    client.send(packet, server);
+                    Thread.sleep(action == 1 ? 100 : 50);
+                }
+                System.out.println("Sent " + args[i]);
+            }
+        }
+    }
+}
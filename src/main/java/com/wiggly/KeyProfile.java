@@ -0,0 +1,268 @@
+package com.wiggly;
+
+import java.awt.event.KeyEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Saved key mappings, stored as properties files of key names
+ * such as "VK_Q=VK_NUMPAD1"
+ * A profile is named (looked up in ~/.wiggly/profiles) or given as a path.
+ * Macros sit in the same file as "macro.<name>=<trigger> : <T9 keys>",
+ * with trigger keys split by spaces for a sequence or "+" for a chord and
+ * an optional third part "hold/gap" in milliseconds, e.g.
+ * "macro.uppercut=VK_S VK_D : 8-8-5" or "macro.bomb=VK_CONTROL+VK_B : * 0 # : 50/50".
+ */
+public final class KeyProfile {
+    
+    // Profile written by the settings dialog and used when none is named
+    public static final String DEFAULT_PROFILE = "default";
+    
+    private static final String EXTENSION = ".properties";
+    private static final String MACRO_PREFIX = "macro.";
+    
+    private static Map<String, Integer> codesByName;
+    private static Map<Integer, String> namesByCode;
+    
+    private KeyProfile() {
+    }
+    
+    /**
+     * Resolves a profile name or path to its file
+     */
+    public static File getFile(String profile) {
+        if (profile.endsWith(EXTENSION) || profile.indexOf('/') >= 0 || profile.indexOf(File.separatorChar) >= 0) {
+            return new File(profile);
+        }
+        String dir = System.getProperty("wiggly.profile.dir");
+        File profileDir = dir != null
+            ? new File(dir)
+            : new File(System.getProperty("user.home"), ".wiggly" + File.separator + "profiles");
+        return new File(profileDir, profile + EXTENSION);
+    }
+    
+    public static boolean exists(String profile) {
+        return getFile(profile).isFile();
+    }
+    
+    /**
+     * Reads a profile; unknown key names are skipped with a warning
+     */
+    public static Map<Integer, Integer> load(String profile) throws IOException {
+        File file = getFile(profile);
+        Properties properties = read(file);
+        
+        Map<Integer, Integer> mapping = new HashMap<>();
+        for (String sourceName : properties.stringPropertyNames()) {
+            if (sourceName.startsWith(MACRO_PREFIX)) {
+                continue;
+            }
+            String targetName = properties.getProperty(sourceName).trim();
+            Integer sourceKey = keyCode(sourceName.trim());
+            Integer targetKey = keyCode(targetName);
+            if (sourceKey == null || targetKey == null) {
+                System.err.println("Warning: Skipping unknown key in " + file.getName() + ": " + sourceName + "=" + targetName);
+                continue;
+            }
+            mapping.put(sourceKey, targetKey);
+        }
+        return mapping;
+    }
+    
+    /**
+     * Reads a profile if it exists, falling back to the given mapping
+     */
+    public static Map<Integer, Integer> loadOrDefault(String profile, Map<Integer, Integer> defaults) {
+        if (!exists(profile)) {
+            return defaults;
+        }
+        try {
+            return load(profile);
+        } catch (IOException e) {
+            System.err.println("Warning: Could not read key profile " + profile + ", using defaults");
+            e.printStackTrace();
+            return defaults;
+        }
+    }
+    
+    /**
+     * Reads the macros of a profile; malformed ones are skipped with a warning
+     */
+    public static List<MacroEngine.Macro> loadMacros(String profile) throws IOException {
+        File file = getFile(profile);
+        Properties properties = read(file);
+        
+        List<MacroEngine.Macro> macros = new ArrayList<>();
+        for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+            if (!key.startsWith(MACRO_PREFIX)) {
+                continue;
+            }
+            try {
+                macros.add(parseMacro(key.substring(MACRO_PREFIX.length()), properties.getProperty(key)));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Warning: Skipping macro in " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        return macros;
+    }
+    
+    /**
+     * Binds a profile's macros, if it exists, in a mapper's macro engine
+     */
+    public static void applyMacros(String profile, MacroEngine engine) {
+        if (!exists(profile)) {
+            return;
+        }
+        try {
+            for (MacroEngine.Macro macro : loadMacros(profile)) {
+                try {
+                    engine.addMacro(macro);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Warning: Skipping macro: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: Could not read macros of key profile " + profile);
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Parses the value of a macro entry, such as "VK_S VK_D : 8-8-5"
+     */
+    public static MacroEngine.Macro parseMacro(String name, String value) {
+        String[] parts = value.split(":");
+        if (name.isEmpty() || parts.length < 2 || parts.length > 3) {
+            throw new IllegalArgumentException("Macro " + name + " is not <trigger> : <T9 keys>: " + value);
+        }
+        String trigger = parts[0].trim();
+        boolean chord = trigger.indexOf('+') >= 0;
+        String[] triggerNames = trigger.split(chord ? "\\s*\\+\\s*" : "\\s+");
+        int[] triggerKeys = new int[triggerNames.length];
+        for (int i = 0; i < triggerNames.length; i++) {
+            Integer code = keyCode(triggerNames[i]);
+            if (code == null) {
+                throw new IllegalArgumentException("Macro " + name + " has unknown trigger key: " + triggerNames[i]);
+            }
+            triggerKeys[i] = code;
+        }
+        
+        int holdMs = MacroEngine.DEFAULT_HOLD_MS;
+        int gapMs = MacroEngine.DEFAULT_GAP_MS;
+        if (parts.length == 3) {
+            String[] timing = parts[2].trim().split("\\s*/\\s*");
+            try {
+                holdMs = Integer.parseInt(timing[0]);
+                gapMs = timing.length > 1 ? Integer.parseInt(timing[1]) : gapMs;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Macro " + name + " has bad timing: " + parts[2].trim());
+            }
+        }
+        return new MacroEngine.Macro(name, triggerKeys, chord, MacroEngine.parseT9Sequence(parts[1]), holdMs, gapMs);
+    }
+    
+    /**
+     * Writes a macro back in the form parseMacro reads
+     */
+    public static String formatMacro(MacroEngine.Macro macro) {
+        StringBuilder value = new StringBuilder();
+        for (int key : macro.getTriggerKeys()) {
+            if (value.length() > 0) {
+                value.append(macro.isChord() ? "+" : " ");
+            }
+            value.append(keyName(key));
+        }
+        value.append(" : ").append(MacroEngine.formatT9Sequence(macro.getOutputKeys()));
+        if (macro.getHoldMs() != MacroEngine.DEFAULT_HOLD_MS || macro.getGapMs() != MacroEngine.DEFAULT_GAP_MS) {
+            value.append(" : ").append(macro.getHoldMs()).append('/').append(macro.getGapMs());
+        }
+        return value.toString();
+    }
+    
+    /**
+     * Writes a profile atomically, creating its directory if needed
+     */
+    public static void save(String profile, Map<Integer, Integer> mapping, List<MacroEngine.Macro> macros) throws IOException {
+        File file = getFile(profile).getAbsoluteFile();
+        Files.createDirectories(file.getParentFile().toPath());
+        
+        Properties properties = new Properties();
+        for (Map.Entry<Integer, Integer> entry : mapping.entrySet()) {
+            properties.setProperty(keyName(entry.getKey()), keyName(entry.getValue()));
+        }
+        for (MacroEngine.Macro macro : macros) {
+            properties.setProperty(MACRO_PREFIX + macro.getName(), formatMacro(macro));
+        }
+        
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+            properties.store(out, "Wiggly key profile: keyboard key = T9 key");
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private static Properties read(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        }
+        return properties;
+    }
+    
+    /**
+     * Returns the VK_ constant name for a key, or its number if it has none
+     */
+    static synchronized String keyName(int keyCode) {
+        buildNameTables();
+        String name = namesByCode.get(keyCode);
+        return name != null ? name : Integer.toString(keyCode);
+    }
+    
+    static synchronized Integer keyCode(String name) {
+        buildNameTables();
+        Integer code = codesByName.get(name.toUpperCase());
+        if (code == null && !name.startsWith("VK_")) {
+            code = codesByName.get("VK_" + name.toUpperCase());
+        }
+        if (code == null) {
+            try {
+                code = Integer.parseInt(name);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return code;
+    }
+    
+    private static void buildNameTables() {
+        if (codesByName != null) {
+            return;
+        }
+        codesByName = new HashMap<>();
+        namesByCode = new HashMap<>();
+        for (Field field : KeyEvent.class.getFields()) {
+            int modifiers = field.getModifiers();
+            if (field.getName().startsWith("VK_") && Modifier.isStatic(modifiers) && field.getType() == int.class) {
+                try {
+                    int code = field.getInt(null);
+                    codesByName.put(field.getName(), code);
+                    namesByCode.putIfAbsent(code, field.getName());
+                } catch (IllegalAccessException e) {
+                    // Public constants; cannot happen
+                }
+            }
+        }
+    }
+}
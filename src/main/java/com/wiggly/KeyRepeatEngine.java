@@ -0,0 +1,436 @@
+package com.wiggly;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Launcher-controlled auto-repeat for held keys
+ * Fires repeats for every held key, so the game gets steady repeats
+ * regardless of OS keyboard settings, and plays back timed key events
+ * for macros. One driver thread at normal priority serves the engines of
+ * all mappers, parking until the earliest deadline of any of them.
+ */
+public class KeyRepeatEngine {
+    
+    /**
+     * Receives the key events produced by the engine
+     */
+    public interface KeyOutput {
+        void emit(int keyCode, boolean press);
+    }
+    
+    /**
+     * Initial delay and repeat rate for one key (or the default for all keys)
+     */
+    public static final class RepeatSettings {
+        private final boolean enabled;
+        private final int initialDelayMs;
+        private final int repeatRate;
+        
+        public RepeatSettings(boolean enabled, int initialDelayMs, int repeatRate) {
+            if (initialDelayMs < 0 || repeatRate <= 0) {
+                throw new IllegalArgumentException("Invalid repeat settings: delay=" + initialDelayMs + ", rate=" + repeatRate);
+            }
+            this.enabled = enabled;
+            this.initialDelayMs = initialDelayMs;
+            this.repeatRate = repeatRate;
+        }
+        
+        public boolean isEnabled() { return enabled; }
+        public int getInitialDelayMs() { return initialDelayMs; }
+        public int getRepeatRate() { return repeatRate; }
+        
+        long initialDelayNanos() { return initialDelayMs * 1_000_000L; }
+        long intervalNanos() { return 1_000_000_000L / repeatRate; }
+    }
+    
+    private static final int MAX_HELD_KEYS = 32;
+    private static final int MAX_TIMED_EVENTS = 256;
+    private static final int TIMED_EVENT = -1;
+    
+    // Engines served by the driver thread; weak so a dropped mapper's engine goes away
+    private static final List<WeakReference<KeyRepeatEngine>> ENGINES = new CopyOnWriteArrayList<>();
+    private static Thread driver;
+    
+    public static final RepeatSettings DEFAULT_SETTINGS = new RepeatSettings(true, 400, 20);
+    
+    private final KeyOutput output;
+    private final Map<Integer, RepeatSettings> keySettings;
+    private volatile RepeatSettings defaultSettings;
+    
+    // Held keys live in fixed slot arrays so ticking never allocates
+    private final Object lock = new Object();
+    private final int[] slotSource = new int[MAX_HELD_KEYS];
+    private final int[] slotMapped = new int[MAX_HELD_KEYS];
+    private final long[] slotDeadline = new long[MAX_HELD_KEYS];
+    private final long[] slotInterval = new long[MAX_HELD_KEYS];
+    private final long[] slotGeneration = new long[MAX_HELD_KEYS];
+    private int slotCount;
+    private long generation;
+    
+    // Pending one-shot key events, also in fixed arrays
+    private final int[] eventKey = new int[MAX_TIMED_EVENTS];
+    private final boolean[] eventPress = new boolean[MAX_TIMED_EVENTS];
+    private final long[] eventDeadline = new long[MAX_TIMED_EVENTS];
+    private int eventCount;
+    private long scheduleGeneration;
+    
+    // Due events are copied out under the lock and emitted after releasing it,
+    // so a slow output never holds up keyDown() and keyUp()
+    private final int[] dueSource = new int[MAX_HELD_KEYS + MAX_TIMED_EVENTS];
+    private final int[] dueKey = new int[MAX_HELD_KEYS + MAX_TIMED_EVENTS];
+    private final boolean[] duePress = new boolean[MAX_HELD_KEYS + MAX_TIMED_EVENTS];
+    private final long[] dueGeneration = new long[MAX_HELD_KEYS + MAX_TIMED_EVENTS];
+    private int dueCount;
+    
+    // One-shot callback, run on the driver thread outside the lock
+    private Runnable timeoutAction;
+    private long timeoutDeadline;
+    
+    private volatile boolean running;
+    
+    public KeyRepeatEngine(KeyOutput output) {
+        this.output = output;
+        this.keySettings = new HashMap<>();
+        this.defaultSettings = DEFAULT_SETTINGS;
+        this.running = true;
+        ENGINES.add(new WeakReference<>(this));
+    }
+    
+    /**
+     * Starts repeating a key after its initial delay
+     */
+    public void keyDown(int sourceKey, int mappedKey) {
+        RepeatSettings settings = getSettings(sourceKey);
+        if (!settings.isEnabled()) {
+            return;
+        }
+        
+        synchronized (lock) {
+            int slot = indexOf(sourceKey);
+            if (slot < 0) {
+                if (slotCount == MAX_HELD_KEYS) {
+                    return;
+                }
+                slot = slotCount++;
+            }
+            slotSource[slot] = sourceKey;
+            slotMapped[slot] = mappedKey;
+            slotDeadline[slot] = System.nanoTime() + settings.initialDelayNanos();
+            slotInterval[slot] = settings.intervalNanos();
+            slotGeneration[slot] = ++generation;
+        }
+        wake();
+    }
+    
+    /**
+     * Stops repeating a key
+     */
+    public void keyUp(int sourceKey) {
+        synchronized (lock) {
+            int slot = indexOf(sourceKey);
+            if (slot >= 0) {
+                removeSlot(slot);
+            }
+        }
+    }
+    
+    /**
+     * Stops repeating all keys
+     */
+    public void releaseAll() {
+        synchronized (lock) {
+            slotCount = 0;
+        }
+    }
+    
+    /**
+     * Queues a timeline of key events relative to now
+     * Returns false if the queue cannot take the whole timeline
+     */
+    public boolean schedule(int[] keyCodes, boolean[] presses, long[] offsetsNanos) {
+        long start = System.nanoTime();
+        synchronized (lock) {
+            if (eventCount + keyCodes.length > MAX_TIMED_EVENTS) {
+                return false;
+            }
+            for (int i = 0; i < keyCodes.length; i++) {
+                eventKey[eventCount] = keyCodes[i];
+                eventPress[eventCount] = presses[i];
+                eventDeadline[eventCount] = start + offsetsNanos[i];
+                eventCount++;
+            }
+        }
+        wake();
+        return true;
+    }
+    
+    /**
+     * Runs an action once on the driver thread after a delay, replacing
+     * any action set before
+     */
+    public void setTimeout(long delayNanos, Runnable action) {
+        synchronized (lock) {
+            timeoutAction = action;
+            timeoutDeadline = System.nanoTime() + delayNanos;
+        }
+        wake();
+    }
+    
+    public void cancelTimeout() {
+        synchronized (lock) {
+            timeoutAction = null;
+        }
+    }
+    
+    /**
+     * Drops pending timed events, sending their releases right away
+     * so no key is left stuck down
+     */
+    public void cancelScheduled() {
+        int[] releases;
+        int releaseCount = 0;
+        synchronized (lock) {
+            releases = new int[eventCount];
+            for (int i = 0; i < eventCount; i++) {
+                if (!eventPress[i]) {
+                    releases[releaseCount++] = eventKey[i];
+                }
+            }
+            eventCount = 0;
+            scheduleGeneration++;
+        }
+        for (int i = 0; i < releaseCount; i++) {
+            fire(releases[i], false);
+        }
+    }
+    
+    public void setDefaultSettings(RepeatSettings settings) {
+        this.defaultSettings = settings;
+    }
+    
+    public RepeatSettings getDefaultSettings() {
+        return defaultSettings;
+    }
+    
+    public void setKeySettings(int sourceKey, RepeatSettings settings) {
+        synchronized (keySettings) {
+            keySettings.put(sourceKey, settings);
+        }
+    }
+    
+    public void clearKeySettings(int sourceKey) {
+        synchronized (keySettings) {
+            keySettings.remove(sourceKey);
+        }
+    }
+    
+    public RepeatSettings getSettings(int sourceKey) {
+        synchronized (keySettings) {
+            RepeatSettings settings = keySettings.get(sourceKey);
+            return settings != null ? settings : defaultSettings;
+        }
+    }
+    
+    public void shutdown() {
+        running = false;
+        wake();
+    }
+    
+    private static void wake() {
+        LockSupport.unpark(driver());
+    }
+    
+    private static synchronized Thread driver() {
+        if (driver == null) {
+            // Not in the thread group of whichever game or dialog got here first
+            ThreadGroup root = Thread.currentThread().getThreadGroup();
+            while (root.getParent() != null) {
+                root = root.getParent();
+            }
+            driver = new Thread(root, KeyRepeatEngine::runDriver, "wiggly-key-repeat");
+            driver.setDaemon(true);
+            driver.setContextClassLoader(KeyRepeatEngine.class.getClassLoader());
+            driver.start();
+        }
+        return driver;
+    }
+    
+    private static void runDriver() {
+        while (true) {
+            long nextDeadline = Long.MAX_VALUE;
+            for (WeakReference<KeyRepeatEngine> ref : ENGINES) {
+                KeyRepeatEngine engine = ref.get();
+                if (engine == null || !engine.running) {
+                    ENGINES.remove(ref);
+                    continue;
+                }
+                nextDeadline = Math.min(nextDeadline, engine.tick());
+            }
+            
+            if (nextDeadline == Long.MAX_VALUE) {
+                LockSupport.park(KeyRepeatEngine.class);
+            } else {
+                long wait = nextDeadline - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(KeyRepeatEngine.class, wait);
+                }
+            }
+        }
+    }
+    
+    private int indexOf(int sourceKey) {
+        for (int i = 0; i < slotCount; i++) {
+            if (slotSource[i] == sourceKey) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private void removeSlot(int slot) {
+        // Move the last slot into the hole to keep the arrays dense
+        int last = --slotCount;
+        slotSource[slot] = slotSource[last];
+        slotMapped[slot] = slotMapped[last];
+        slotDeadline[slot] = slotDeadline[last];
+        slotInterval[slot] = slotInterval[last];
+    }
+    
+    private void removeEvent(int index) {
+        // Shift down rather than swap so events keep their scheduling order
+        int tail = eventCount - index - 1;
+        System.arraycopy(eventKey, index + 1, eventKey, index, tail);
+        System.arraycopy(eventPress, index + 1, eventPress, index, tail);
+        System.arraycopy(eventDeadline, index + 1, eventDeadline, index, tail);
+        eventCount--;
+    }
+    
+    private void addDue(int source, int keyCode, boolean press, long dueGen) {
+        dueSource[dueCount] = source;
+        dueKey[dueCount] = keyCode;
+        duePress[dueCount] = press;
+        dueGeneration[dueCount] = dueGen;
+        dueCount++;
+    }
+    
+    private boolean isCurrent(int source, long dueGen) {
+        synchronized (lock) {
+            if (source == TIMED_EVENT) {
+                return dueGen == scheduleGeneration;
+            }
+            int slot = indexOf(source);
+            return slot >= 0 && slotGeneration[slot] == dueGen;
+        }
+    }
+    
+    private void fireDue(int d) {
+        int source = dueSource[d];
+        long dueGen = dueGeneration[d];
+        if (!duePress[d]) {
+            // Releases always go out, so no key is left stuck down
+            fire(dueKey[d], false);
+            return;
+        }
+        // Drop presses for keys released or timelines cancelled since they were copied out
+        if (!isCurrent(source, dueGen)) {
+            return;
+        }
+        fire(dueKey[d], true);
+        if (!isCurrent(source, dueGen)) {
+            // The release raced past this press, so send it again after it
+            fire(dueKey[d], false);
+        }
+    }
+    
+    private void fire(int keyCode, boolean press) {
+        try {
+            output.emit(keyCode, press);
+        } catch (RuntimeException e) {
+            System.err.println("Error emitting key: " + keyCode);
+        }
+    }
+    
+    /**
+     * Fires this engine's due events on the driver thread
+     * Returns the next deadline, or Long.MAX_VALUE when nothing is pending.
+     */
+    private long tick() {
+        while (true) {
+            long now = System.nanoTime();
+            long nextDeadline = Long.MAX_VALUE;
+            boolean fired = false;
+            Runnable timeout = null;
+            
+            synchronized (lock) {
+                for (int i = 0; i < slotCount; i++) {
+                    long deadline = slotDeadline[i];
+                    if (deadline - now <= 0) {
+                        addDue(slotSource[i], slotMapped[i], true, slotGeneration[i]);
+                        fired = true;
+                        
+                        // Stay on the original cadence, but never burst to catch up after a stall
+                        deadline += slotInterval[i];
+                        if (deadline - now <= 0) {
+                            deadline = now + slotInterval[i];
+                        }
+                        slotDeadline[i] = deadline;
+                    }
+                    if (deadline < nextDeadline) {
+                        nextDeadline = deadline;
+                    }
+                }
+                
+                // Due timed events fire in the order they were scheduled
+                int i = 0;
+                while (i < eventCount) {
+                    long deadline = eventDeadline[i];
+                    if (deadline - now <= 0) {
+                        addDue(TIMED_EVENT, eventKey[i], eventPress[i], scheduleGeneration);
+                        removeEvent(i);
+                        fired = true;
+                        continue;
+                    }
+                    if (deadline < nextDeadline) {
+                        nextDeadline = deadline;
+                    }
+                    i++;
+                }
+                
+                if (timeoutAction != null) {
+                    if (timeoutDeadline - now <= 0) {
+                        timeout = timeoutAction;
+                        timeoutAction = null;
+                    } else if (timeoutDeadline < nextDeadline) {
+                        nextDeadline = timeoutDeadline;
+                    }
+                }
+            }
+            
+            for (int d = 0; d < dueCount; d++) {
+                fireDue(d);
+            }
+            dueCount = 0;
+            
+            if (timeout != null) {
+                // Outside the lock, as the action may take its owner's lock
+                try {
+                    timeout.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Error running key timeout");
+                    e.printStackTrace();
+                }
+                continue;
+            }
+            if (fired) {
+                continue;
+            }
+            
+            return nextDeadline;
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.wiggly;
 
 import java.awt.AWTException;
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.GraphicsEnvironment;
 import java.awt.KeyEventDispatcher;
+import java.awt.KeyboardFocusManager;
 import java.awt.Robot;
 import java.awt.event.KeyEvent;
 import java.util.HashMap;
@@ -14,52 +18,75 @@ import java.util.Set;
  * Intercepts key events and translates them for game compatibility
  */
 public class KeyboardMapper implements KeyEventDispatcher {
+    
+    // D-pad keys in clockwise order: up, right, down, left
+    private static final int[][] DPADS = {
+        {KeyEvent.VK_NUMPAD2, KeyEvent.VK_NUMPAD6, KeyEvent.VK_NUMPAD8, KeyEvent.VK_NUMPAD4},
+        {KeyEvent.VK_UP, KeyEvent.VK_RIGHT, KeyEvent.VK_DOWN, KeyEvent.VK_LEFT}
+    };
+    
+    // Output key for each key code below 256, per quarter turn of the screen
+    private static final int[][] ROTATED_KEYS = buildRotatedKeys();
+    
+    private static final int DELIVERY_RING_SIZE = 256;
+    
     private Map<Integer, Integer> keyMapping;
     private Robot robot;
     private Set<Integer> pressedKeys;
     private boolean enabled;
+    private KeyRepeatEngine repeatEngine;
+    private MacroEngine macroEngine;
+    private volatile Component target;
+    private volatile Runnable bindingsListener;
+    private volatile int rotation;
+    private final Runnable sequenceTimeout = this::sequenceTimedOut;
+    
+    // Keys for a target component queue in a ring and go out in one pass
+    // on the EDT, reusing one event, so delivery does not allocate per key
+    private final Component[] deliveryTargets = new Component[DELIVERY_RING_SIZE];
+    private final int[] deliveryKeys = new int[DELIVERY_RING_SIZE];
+    private int deliveryHead;
+    private int deliveryCount;
+    private boolean deliveryPosted;
+    private final Runnable deliveryDrain = this::drainDeliveries;
+    private MappedKeyEvent deliveryEvent;
+    private final Telemetry telemetry = Telemetry.getShared();
     
     public KeyboardMapper(Map<Integer, Integer> keyMapping) {
+        this(keyMapping, null);
+    }
+    
+    /**
+     * Creates a mapper that sends its keys to one component from the start
+     * Such a mapper, like any mapper when headless, has no Robot.
+     */
+    public KeyboardMapper(Map<Integer, Integer> keyMapping, Component target) {
         this.keyMapping = new HashMap<>(keyMapping);
+        this.target = target;
         this.pressedKeys = new HashSet<>();
         this.enabled = true;
         
-        try {
-            this.robot = new Robot();
-            this.robot.setAutoDelay(0);
-        } catch (AWTException e) {
-            System.err.println("Warning: Could not create Robot for key mapping");
-            e.printStackTrace();
+        // Repeats come from our own engine; OS repeats are swallowed below
+        this.repeatEngine = new KeyRepeatEngine(this::simulateKeyPress);
+        this.macroEngine = new MacroEngine(repeatEngine);
+        
+        // A targeted mapper never uses the Robot, and headless there is none
+        if (target == null && !GraphicsEnvironment.isHeadless()) {
+            try {
+                this.robot = new Robot();
+                this.robot.setAutoDelay(0);
+            } catch (AWTException e) {
+                System.err.println("Warning: Could not create Robot for key mapping");
+                e.printStackTrace();
+            }
         }
     }
     
     @Override
     public boolean dispatchKeyEvent(KeyEvent e) {
-        if (!enabled || robot == null) {
-            return false;
-        }
-        
-        int keyCode = e.getKeyCode();
-        
-        // Check if this key should be mapped
-        if (keyMapping.containsKey(keyCode)) {
-            int mappedKey = keyMapping.get(keyCode);
-            
-            if (e.getID() == KeyEvent.KEY_PRESSED) {
-                // Prevent duplicate presses
-                if (!pressedKeys.contains(keyCode)) {
-                    pressedKeys.add(keyCode);
-                    // Note: Direct robot key events might not work for all games
-                    // This is a basic implementation
-                    simulateKeyPress(mappedKey, true);
-                }
-            } else if (e.getID() == KeyEvent.KEY_RELEASED) {
-                if (pressedKeys.contains(keyCode)) {
-                    pressedKeys.remove(keyCode);
-                    simulateKeyPress(mappedKey, false);
-                }
-            }
-            
+        int id = e.getID();
+        if ((id == KeyEvent.KEY_PRESSED || id == KeyEvent.KEY_RELEASED)
+                && translate(e.getKeyCode(), id == KeyEvent.KEY_PRESSED)) {
             // Consume the original event to prevent double input
             e.consume();
             return true;
@@ -69,7 +96,127 @@ public class KeyboardMapper implements KeyEventDispatcher {
         return false;
     }
     
+    /**
+     * Feeds a key from a source other than the AWT event queue, such as
+     * the InputServer, through the same mapping and macro tables
+     * Returns true if the key is mapped or belongs to a macro.
+     */
+    public boolean injectKey(int keyCode, boolean press) {
+        return translate(keyCode, press);
+    }
+    
+    // Locked because injected keys arrive on their own thread
+    private synchronized boolean translate(int keyCode, boolean press) {
+        if (!enabled || (robot == null && target == null)) {
+            return false;
+        }
+        
+        // Macro triggers take priority over plain one-to-one mappings
+        boolean macroKey = press ? macroEngine.keyPressed(keyCode) : macroEngine.keyReleased(keyCode);
+        // Keys held back for a macro that did not happen go out first
+        macroEngine.replayAbandoned(this::mapKey);
+        if (press) {
+            updateSequenceTimeout();
+        }
+        if (macroKey) {
+            telemetry.keyTranslated(keyCode, -1, press, true);
+            return true;
+        }
+        return mapKey(keyCode, press);
+    }
+    
+    /**
+     * Sends a key through the one-to-one mapping
+     * Returns false if the key is not mapped.
+     */
+    private boolean mapKey(int keyCode, boolean press) {
+        Integer mappedKey = keyMapping.get(keyCode);
+        if (mappedKey == null) {
+            return false;
+        }
+        
+        if (press) {
+            // Prevent duplicate presses
+            if (pressedKeys.add(keyCode)) {
+                // Note: Direct robot key events might not work for all games
+                // This is a basic implementation
+                simulateKeyPress(mappedKey, true);
+                repeatEngine.keyDown(keyCode, mappedKey);
+                telemetry.keyTranslated(keyCode, mappedKey, true, false);
+            }
+        } else if (pressedKeys.remove(keyCode)) {
+            repeatEngine.keyUp(keyCode);
+            simulateKeyPress(mappedKey, false);
+            telemetry.keyTranslated(keyCode, mappedKey, false, false);
+        }
+        return true;
+    }
+    
+    private void updateSequenceTimeout() {
+        if (macroEngine.isSequencePending()) {
+            repeatEngine.setTimeout(MacroEngine.SEQUENCE_TIMEOUT_NANOS, sequenceTimeout);
+        } else {
+            repeatEngine.cancelTimeout();
+        }
+    }
+    
+    /**
+     * Lets held-back keys through when the rest of their trigger never came
+     */
+    private synchronized void sequenceTimedOut() {
+        macroEngine.expireSequence();
+        macroEngine.replayAbandoned(this::mapKey);
+        if (macroEngine.isSequencePending()) {
+            // A key came in since the timeout was set; wait for the rest of its window
+            repeatEngine.setTimeout(MacroEngine.SEQUENCE_TIMEOUT_NANOS, sequenceTimeout);
+        }
+    }
+    
+    private static int[][] buildRotatedKeys() {
+        int[][] table = new int[4][256];
+        for (int turns = 0; turns < 4; turns++) {
+            for (int key = 0; key < 256; key++) {
+                table[turns][key] = key;
+            }
+            // A screen turned clockwise shows the game's left as up, so each
+            // direction pressed is turned back the other way
+            for (int[] dpad : DPADS) {
+                for (int i = 0; i < 4; i++) {
+                    table[turns][dpad[i]] = dpad[(i - turns + 4) & 3];
+                }
+            }
+        }
+        return table;
+    }
+    
+    /**
+     * Turns the D-pad to match a display rotated clockwise by the given
+     * number of quarter turns, so up on the keyboard is up on the screen
+     */
+    public synchronized void setRotation(int quarterTurns) {
+        if ((quarterTurns & 3) != rotation) {
+            // Held directions were sent for the old rotation; release them first
+            releaseHeldKeys();
+            rotation = quarterTurns & 3;
+        }
+    }
+    
+    public int getRotation() {
+        return rotation;
+    }
+    
+    private int rotate(int keyCode) {
+        return keyCode >= 0 && keyCode < 256 ? ROTATED_KEYS[rotation][keyCode] : keyCode;
+    }
+    
     private void simulateKeyPress(int keyCode, boolean press) {
+        keyCode = rotate(keyCode);
+        Component component = target;
+        if (component != null) {
+            deliver(component, keyCode, press);
+            return;
+        }
+        
         try {
             if (press) {
                 robot.keyPress(keyCode);
@@ -77,14 +224,137 @@ public class KeyboardMapper implements KeyEventDispatcher {
                 robot.keyRelease(keyCode);
             }
         } catch (Exception e) {
+            telemetry.robotFailure();
             System.err.println("Error simulating key: " + keyCode);
         }
     }
     
-    public void setEnabled(boolean enabled) {
+    private void deliver(Component component, int keyCode, boolean press) {
+        synchronized (deliveryKeys) {
+            if (deliveryCount == DELIVERY_RING_SIZE) {
+                System.err.println("Key delivery queue full, dropping key: " + keyCode);
+                return;
+            }
+            int tail = (deliveryHead + deliveryCount++) % DELIVERY_RING_SIZE;
+            deliveryTargets[tail] = component;
+            deliveryKeys[tail] = press ? keyCode : ~keyCode;
+            if (deliveryPosted) {
+                return;
+            }
+            deliveryPosted = true;
+        }
+        EventQueue.invokeLater(deliveryDrain);
+    }
+    
+    private void drainDeliveries() {
+        KeyboardFocusManager focusManager = KeyboardFocusManager.getCurrentKeyboardFocusManager();
+        while (true) {
+            Component component;
+            int key;
+            synchronized (deliveryKeys) {
+                if (deliveryCount == 0) {
+                    deliveryPosted = false;
+                    return;
+                }
+                component = deliveryTargets[deliveryHead];
+                key = deliveryKeys[deliveryHead];
+                deliveryTargets[deliveryHead] = null;
+                deliveryHead = (deliveryHead + 1) % DELIVERY_RING_SIZE;
+                deliveryCount--;
+            }
+            
+            if (deliveryEvent == null) {
+                deliveryEvent = new MappedKeyEvent(component);
+            }
+            deliveryEvent.reset(component, key >= 0 ? key : ~key, key >= 0);
+            // Redispatched past the focus manager, so it reaches the component
+            // even when another component (or none, when headless) has focus
+            focusManager.redispatchEvent(component, deliveryEvent);
+        }
+    }
+    
+    public synchronized void setEnabled(boolean enabled) {
         this.enabled = enabled;
         if (!enabled) {
             pressedKeys.clear();
+            repeatEngine.releaseAll();
+            repeatEngine.cancelScheduled();
+            macroEngine.reset();
+            repeatEngine.cancelTimeout();
+        }
+    }
+    
+    /**
+     * Sends mapped keys to one component instead of the focus owner,
+     * which lets several games share the keyboard in split zones
+     */
+    public void setTarget(Component target) {
+        if (target != this.target) {
+            // Held keys were pressed on the old target; release them there
+            releaseHeldKeys();
+            this.target = target;
+        }
+    }
+    
+    public Component getTarget() {
+        return target;
+    }
+    
+    /**
+     * Sends a release for every key the user is holding, so nothing stays
+     * stuck when focus leaves the launcher
+     * Keys go out the way they came in: to the target when there is one,
+     * otherwise through the Robot that pressed them.
+     */
+    public synchronized void releaseHeldKeys() {
+        boolean canSend = target != null || robot != null;
+        repeatEngine.releaseAll();
+        repeatEngine.cancelScheduled();
+        macroEngine.reset();
+        repeatEngine.cancelTimeout();
+        for (int sourceKey : pressedKeys) {
+            Integer mappedKey = keyMapping.get(sourceKey);
+            if (mappedKey != null && canSend) {
+                simulateKeyPress(mappedKey, false);
+            }
+        }
+        pressedKeys.clear();
+    }
+    
+    /**
+     * Called for key events the router found no binding for
+     */
+    synchronized void unboundKey(KeyEvent e) {
+        if (enabled && e.getID() == KeyEvent.KEY_PRESSED) {
+            macroEngine.breakSequence();
+            macroEngine.replayAbandoned(this::mapKey);
+            repeatEngine.cancelTimeout();
+        }
+    }
+    
+    /**
+     * Source keys of the mapping plus every macro trigger key
+     */
+    public synchronized Set<Integer> getBoundKeys() {
+        Set<Integer> keys = new HashSet<>(keyMapping.keySet());
+        for (int key : macroEngine.getTriggerKeys()) {
+            keys.add(key);
+        }
+        return keys;
+    }
+    
+    /**
+     * Notified whenever the set of bound keys may have changed
+     */
+    void setBindingsListener(Runnable listener) {
+        this.bindingsListener = listener;
+        macroEngine.setBindingsListener(listener);
+    }
+    
+    private void bindingsChanged() {
+        Runnable listener = bindingsListener;
+        if (listener != null) {
+            listener.run();
         }
     }
     
@@ -93,18 +363,61 @@ public class KeyboardMapper implements KeyEventDispatcher {
     }
     
     public void updateMapping(int sourceKey, int targetKey) {
-        keyMapping.put(sourceKey, targetKey);
+        Integer previous;
+        synchronized (this) {
+            previous = keyMapping.put(sourceKey, targetKey);
+        }
+        if (previous == null) {
+            bindingsChanged();
+        }
     }
     
     public void removeMapping(int sourceKey) {
-        keyMapping.remove(sourceKey);
+        Integer mappedKey;
+        synchronized (this) {
+            mappedKey = keyMapping.remove(sourceKey);
+            
+            // Release a key that is being held while its mapping goes away
+            if (mappedKey != null && pressedKeys.remove(sourceKey)) {
+                repeatEngine.keyUp(sourceKey);
+                simulateKeyPress(mappedKey, false);
+            }
+        }
+        if (mappedKey != null) {
+            bindingsChanged();
+        }
     }
     
-    public Map<Integer, Integer> getKeyMapping() {
+    public synchronized Map<Integer, Integer> getKeyMapping() {
         return new HashMap<>(keyMapping);
     }
     
+    public KeyRepeatEngine getRepeatEngine() {
+        return repeatEngine;
+    }
+    
+    public MacroEngine getMacroEngine() {
+        return macroEngine;
+    }
+    
     public String getKeyName(int keyCode) {
         return KeyEvent.getKeyText(keyCode);
     }
+    
+    /**
+     * Key event reused for every key delivered to a target component
+     */
+    private static final class MappedKeyEvent extends KeyEvent {
+        
+        MappedKeyEvent(Component component) {
+            super(component, KEY_PRESSED, 0, 0, VK_UNDEFINED, CHAR_UNDEFINED);
+        }
+        
+        void reset(Component component, int keyCode, boolean press) {
+            source = component;
+            id = press ? KEY_PRESSED : KEY_RELEASED;
+            consumed = false;
+            setKeyCode(keyCode);
+        }
+    }
 }
@@ -0,0 +1,153 @@
+package com.wiggly;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+
+/**
+ * Command-line kiosk mode: starts one game straight into a bare window
+ * No launcher chrome is built; the only UI is the game's render surface,
+ * driven by a saved key profile.
+ *
+ * Usage: --jar game.jar [--profile name|file] [--resolution 240x320] [--fullscreen]
+ */
+public class KioskLauncher {
+    
+    public static final String USAGE =
+        "Usage: java -jar wiggly-launcher.jar --jar <game.jar> [--profile <name|file>] " +
+        "[--resolution <WxH>] [--fullscreen]";
+    
+    private final File jarFile;
+    private final String profile;
+    private final int width;
+    private final int height;
+    private final boolean fullscreen;
+    private GameSession session;
+    
+    public KioskLauncher(File jarFile, String profile, int width, int height, boolean fullscreen) {
+        this.jarFile = jarFile;
+        this.profile = profile;
+        this.width = width;
+        this.height = height;
+        this.fullscreen = fullscreen;
+    }
+    
+    /**
+     * Parses the kiosk arguments; throws IllegalArgumentException on bad input
+     */
+    public static KioskLauncher fromArgs(String[] args) {
+        File jar = null;
+        String profile = null;
+        GameLauncher.GameOrientation standard = GameLauncher.GameOrientation.PORTRAIT_STANDARD;
+        int width = standard.getWidth();
+        int height = standard.getHeight();
+        boolean fullscreen = false;
+        
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--jar" -> jar = new File(value(args, ++i, "--jar"));
+                case "--profile" -> profile = value(args, ++i, "--profile");
+                case "--resolution" -> {
+                    String resolution = value(args, ++i, "--resolution");
+                    String[] parts = resolution.toLowerCase().split("x");
+                    try {
+                        width = Integer.parseInt(parts[0].trim());
+                        height = Integer.parseInt(parts[1].trim());
+                    } catch (RuntimeException e) {
+                        throw new IllegalArgumentException("Invalid resolution: " + resolution);
+                    }
+                    if (parts.length != 2 || width <= 0 || height <= 0) {
+                        throw new IllegalArgumentException("Invalid resolution: " + resolution);
+                    }
+                }
+                case "--fullscreen" -> fullscreen = true;
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        
+        if (jar == null) {
+            throw new IllegalArgumentException("Missing --jar");
+        }
+        if (!jar.isFile()) {
+            throw new IllegalArgumentException("Game JAR not found: " + jar);
+        }
+        if (profile != null && !KeyProfile.exists(profile)) {
+            throw new IllegalArgumentException("Key profile not found: " + KeyProfile.getFile(profile));
+        }
+        return new KioskLauncher(jar, profile, width, height, fullscreen);
+    }
+    
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[index];
+    }
+    
+    /**
+     * Opens the window and starts the game; call on the event thread
+     */
+    public void start() {
+        // Load time counts the main class lookup and the game start, as in
+        // the launcher, but not building the window
+        long lookupStart = System.nanoTime();
+        String mainClass = GameLauncher.findMainClass(jarFile);
+        long lookupNanos = System.nanoTime() - lookupStart;
+        if (mainClass == null) {
+            System.err.println("Error: Could not find main class in " + jarFile.getName());
+            System.exit(1);
+            return;
+        }
+        
+        Telemetry.getShared().installFrameCounter();
+        JFrame frame = new JFrame(jarFile.getName());
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.getContentPane().setBackground(Color.BLACK);
+        frame.setLayout(new GridBagLayout());
+        
+        session = new GameSession(jarFile);
+        JPanel surface = session.getSurface();
+        surface.setBorder(null);
+        surface.setPreferredSize(new Dimension(width, height));
+        frame.add(surface);
+        
+        String keyProfile = profile != null ? profile : KeyProfile.DEFAULT_PROFILE;
+        KeyboardMapper keyMapper = new KeyboardMapper(KeyProfile.loadOrDefault(keyProfile, GameLauncher.DEFAULT_KEY_MAPPING));
+        KeyProfile.applyMacros(keyProfile, keyMapper.getMacroEngine());
+        InputRouter inputRouter = new InputRouter();
+        inputRouter.addMapper(keyMapper);
+        inputRouter.install();
+        InputServer.startIfConfigured(keyMapper);
+        
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                session.close();
+                CaptureEngine.getShared().shutdown();
+            }
+        });
+        
+        if (fullscreen) {
+            frame.setUndecorated(true);
+            frame.setExtendedState(JFrame.MAXIMIZED_BOTH);
+        } else {
+            frame.pack();
+            frame.setLocationRelativeTo(null);
+        }
+        frame.setVisible(true);
+        
+        long loadStart = System.nanoTime() - lookupNanos;
+        session.start(mainClass, started -> {
+            Telemetry.getShared().gameLoaded((System.nanoTime() - loadStart) / 1_000_000);
+            // Startup as the user sees it, from the JVM launch
+            System.out.println("Time to game: " + GameLauncher.millisSinceStart() + " ms");
+            started.focusGame();
+        }, (failed, ex) -> {
+            System.err.println("Error loading game: " + ex.getMessage());
+            ex.printStackTrace();
+            System.exit(1);
+        });
+    }
+}
@@ -0,0 +1,591 @@
+package com.wiggly;
+
+import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds physical keys, key sequences and chords to timed T9 key macros
+ * Bindings are compiled into a trie with a dense transition table,
+ * so every key event costs a single array lookup. Keys that start a
+ * sequence or chord are held back from the game until the macro fires;
+ * if it does not, they are handed back to be sent after all.
+ */
+public class MacroEngine {
+    
+    // Additional control keys (same codes as the launcher's key panel)
+    private static final int KEY_SOFT_LEFT = 1000;
+    private static final int KEY_SOFT_RIGHT = 1001;
+    private static final int KEY_CALL = 1002;
+    private static final int KEY_DISCONNECT = 1003;
+    
+    // Default timing: hold for two frames and pause for one at 30 FPS
+    public static final int DEFAULT_HOLD_MS = 66;
+    public static final int DEFAULT_GAP_MS = 33;
+    
+    // Sequence triggers must be typed within this window between presses
+    static final long SEQUENCE_TIMEOUT_NANOS = 500_000_000L;
+    
+    // Key codes above this are not considered as macro triggers
+    private static final int MAX_TRIGGER_KEY = 0x10000;
+    
+    // Chords are compiled as every press order, so keep them small (4! = 24 paths)
+    private static final int MAX_CHORD_KEYS = 4;
+    
+    /**
+     * A single binding from trigger keys to a timed T9 key sequence
+     */
+    public static final class Macro {
+        private final String name;
+        private final int[] triggerKeys;
+        private final boolean chord;
+        private final int[] outputKeys;
+        private final int holdMs;
+        private final int gapMs;
+        
+        // Precomputed playback timeline
+        private final int[] eventKeys;
+        private final boolean[] eventPresses;
+        private final long[] eventOffsets;
+        
+        public Macro(String name, int[] triggerKeys, boolean chord, int[] outputKeys, int holdMs, int gapMs) {
+            if (triggerKeys.length == 0 || outputKeys.length == 0) {
+                throw new IllegalArgumentException("Macro " + name + " needs trigger and output keys");
+            }
+            if (holdMs < 0 || gapMs < 0) {
+                throw new IllegalArgumentException("Macro " + name + " has negative timing");
+            }
+            if (chord && triggerKeys.length > MAX_CHORD_KEYS) {
+                throw new IllegalArgumentException("Macro " + name + " chord has more than " + MAX_CHORD_KEYS + " keys");
+            }
+            this.name = name;
+            this.triggerKeys = triggerKeys.clone();
+            this.chord = chord;
+            this.outputKeys = outputKeys.clone();
+            this.holdMs = holdMs;
+            this.gapMs = gapMs;
+            
+            int count = outputKeys.length * 2;
+            this.eventKeys = new int[count];
+            this.eventPresses = new boolean[count];
+            this.eventOffsets = new long[count];
+            
+            long offset = 0;
+            for (int i = 0; i < outputKeys.length; i++) {
+                eventKeys[i * 2] = outputKeys[i];
+                eventPresses[i * 2] = true;
+                eventOffsets[i * 2] = offset;
+                offset += holdMs * 1_000_000L;
+                
+                eventKeys[i * 2 + 1] = outputKeys[i];
+                eventPresses[i * 2 + 1] = false;
+                eventOffsets[i * 2 + 1] = offset;
+                offset += gapMs * 1_000_000L;
+            }
+        }
+        
+        public String getName() { return name; }
+        public int[] getTriggerKeys() { return triggerKeys.clone(); }
+        public boolean isChord() { return chord; }
+        public int[] getOutputKeys() { return outputKeys.clone(); }
+        public int getHoldMs() { return holdMs; }
+        public int getGapMs() { return gapMs; }
+    }
+    
+    /**
+     * Immutable compiled form of all bindings
+     */
+    private static final class Trie {
+        static final Trie EMPTY = new Trie(new int[0], 0, new int[0], new Macro[1], 0);
+        
+        final int[] keyToSymbol;   // key code -> symbol, or -1
+        final int symbolCount;
+        final int[] transitions;   // node * symbolCount + symbol -> node, or -1
+        final Macro[] accepting;   // node -> macro fired on reaching it
+        final int maxDepth;        // longest trigger
+        
+        Trie(int[] keyToSymbol, int symbolCount, int[] transitions, Macro[] accepting, int maxDepth) {
+            this.keyToSymbol = keyToSymbol;
+            this.symbolCount = symbolCount;
+            this.transitions = transitions;
+            this.accepting = accepting;
+            this.maxDepth = maxDepth;
+        }
+        
+        int symbolOf(int keyCode) {
+            return keyCode >= 0 && keyCode < keyToSymbol.length ? keyToSymbol[keyCode] : -1;
+        }
+        
+        int next(int node, int symbol) {
+            return transitions[node * symbolCount + symbol];
+        }
+    }
+    
+    private final KeyRepeatEngine scheduler;
+    private final Map<String, Macro> macros;
+    private volatile Trie trie;
+    private volatile Runnable bindingsListener;
+    
+    // Matching state, only touched under the owning KeyboardMapper's lock
+    private Trie stateTrie;
+    private int state;
+    private long lastPressNanos;
+    private boolean[] held;
+    // Keys whose press the game has not seen, so their release is not passed on either
+    private boolean[] swallowed;
+    
+    // Presses held back while they may still start a macro
+    private int[] pendingKeys = new int[0];
+    private boolean[] pendingReleased = new boolean[0];
+    private int pendingCount;
+    
+    // Held-back presses that did not become a macro, waiting to be replayed
+    private int[] abandonedKeys = new int[0];
+    private boolean[] abandonedReleased = new boolean[0];
+    private int abandonedCount;
+    
+    public MacroEngine(KeyRepeatEngine scheduler) {
+        this.scheduler = scheduler;
+        this.macros = new LinkedHashMap<>();
+        this.trie = Trie.EMPTY;
+    }
+    
+    /**
+     * Binds trigger keys to a T9 sequence such as "8-8-5" or "L-2-OK"
+     */
+    public void addMacro(String name, int[] triggerKeys, boolean chord, String t9Sequence) {
+        addMacro(new Macro(name, triggerKeys, chord, parseT9Sequence(t9Sequence), DEFAULT_HOLD_MS, DEFAULT_GAP_MS));
+    }
+    
+    public void addMacro(Macro macro) {
+        synchronized (this) {
+            Macro previous = macros.put(macro.getName(), macro);
+            try {
+                compile();
+            } catch (IllegalArgumentException e) {
+                // Keep the previous bindings if the new one conflicts
+                if (previous != null) {
+                    macros.put(previous.getName(), previous);
+                } else {
+                    macros.remove(macro.getName());
+                }
+                throw e;
+            }
+        }
+        bindingsChanged();
+    }
+    
+    public void removeMacro(String name) {
+        synchronized (this) {
+            if (macros.remove(name) == null) {
+                return;
+            }
+            compile();
+        }
+        bindingsChanged();
+    }
+    
+    /**
+     * Every key that appears in a trigger
+     */
+    public int[] getTriggerKeys() {
+        int[] keyToSymbol = trie.keyToSymbol;
+        int count = 0;
+        int[] keys = new int[keyToSymbol.length];
+        for (int key = 0; key < keyToSymbol.length; key++) {
+            if (keyToSymbol[key] >= 0) {
+                keys[count++] = key;
+            }
+        }
+        return Arrays.copyOf(keys, count);
+    }
+    
+    /**
+     * Called when the trigger keys change, outside the engine's lock
+     */
+    void setBindingsListener(Runnable listener) {
+        this.bindingsListener = listener;
+    }
+    
+    private void bindingsChanged() {
+        Runnable listener = bindingsListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+    
+    public synchronized List<Macro> getMacros() {
+        return new ArrayList<>(macros.values());
+    }
+    
+    /**
+     * Feeds a key press into the matcher
+     * Returns true if the event belongs to a macro, or may start one, and
+     * should be consumed. Presses held back earlier that turn out not to
+     * start a macro are queued for replayAbandoned.
+     */
+    public boolean keyPressed(int keyCode) {
+        Trie t = trie;
+        int symbol = t.symbolOf(keyCode);
+        if (symbol < 0) {
+            abandon();
+            return false;
+        }
+        
+        if (stateTrie != t) {
+            resetState(t);
+        }
+        
+        // OS auto-repeat of a key that is held back or fired a macro
+        if (held[symbol]) {
+            return swallowed[symbol];
+        }
+        held[symbol] = true;
+        
+        long now = System.nanoTime();
+        if (state != 0 && now - lastPressNanos > SEQUENCE_TIMEOUT_NANOS) {
+            abandon();
+        }
+        lastPressNanos = now;
+        
+        int next = t.next(state, symbol);
+        if (next < 0 && state != 0) {
+            abandon();
+            next = t.next(0, symbol);
+        }
+        if (next < 0) {
+            return false;
+        }
+        
+        Macro macro = t.accepting[next];
+        if (macro == null) {
+            // Hold the press back until the macro fires or the keys go another way
+            state = next;
+            pendingKeys[pendingCount] = keyCode;
+            pendingReleased[pendingCount] = false;
+            pendingCount++;
+            swallowed[symbol] = true;
+            return true;
+        }
+        
+        if (macro.chord && !allHeld(t, macro.triggerKeys)) {
+            abandon();
+            return false;
+        }
+        
+        // The held-back presses were the macro's trigger; the game never sees them
+        state = 0;
+        pendingCount = 0;
+        swallowed[symbol] = true;
+        if (!scheduler.schedule(macro.eventKeys, macro.eventPresses, macro.eventOffsets)) {
+            System.err.println("Macro queue full, dropped: " + macro.getName());
+        }
+        return true;
+    }
+    
+    /**
+     * Feeds a key release into the matcher
+     * Returns true if the game never saw the key's press, so its release
+     * should be consumed too
+     */
+    public boolean keyReleased(int keyCode) {
+        Trie t = trie;
+        int symbol = t.symbolOf(keyCode);
+        if (symbol < 0 || stateTrie != t) {
+            return false;
+        }
+        
+        held[symbol] = false;
+        boolean consumed = swallowed[symbol];
+        swallowed[symbol] = false;
+        if (consumed) {
+            // A held-back key that is replayed later is replayed as a tap
+            for (int i = pendingCount - 1; i >= 0; i--) {
+                if (pendingKeys[i] == keyCode && !pendingReleased[i]) {
+                    pendingReleased[i] = true;
+                    break;
+                }
+            }
+        }
+        return consumed;
+    }
+    
+    /**
+     * Abandons a partially typed sequence, as any non-trigger key press does
+     */
+    public void breakSequence() {
+        abandon();
+    }
+    
+    /**
+     * Abandons a partially typed sequence if no key came within the timeout
+     */
+    public void expireSequence() {
+        if (pendingCount > 0 && System.nanoTime() - lastPressNanos >= SEQUENCE_TIMEOUT_NANOS) {
+            abandon();
+        }
+    }
+    
+    /**
+     * True while presses are held back waiting for the rest of a trigger
+     */
+    public boolean isSequencePending() {
+        return pendingCount > 0;
+    }
+    
+    /**
+     * Hands the held-back presses of abandoned sequences back in the order
+     * they were typed, with a release for each key let go in the meantime
+     */
+    public void replayAbandoned(KeyRepeatEngine.KeyOutput output) {
+        int count = abandonedCount;
+        abandonedCount = 0;
+        for (int i = 0; i < count; i++) {
+            output.emit(abandonedKeys[i], true);
+            if (abandonedReleased[i]) {
+                output.emit(abandonedKeys[i], false);
+            }
+        }
+    }
+    
+    /**
+     * Forgets held keys and any partially typed sequence
+     * Held-back presses are dropped, as the keys are being released anyway.
+     */
+    public void reset() {
+        state = 0;
+        pendingCount = 0;
+        abandonedCount = 0;
+        stateTrie = null;
+    }
+    
+    private void abandon() {
+        state = 0;
+        if (pendingCount == 0) {
+            return;
+        }
+        if (abandonedCount + pendingCount > abandonedKeys.length) {
+            abandonedKeys = Arrays.copyOf(abandonedKeys, abandonedCount + pendingCount);
+            abandonedReleased = Arrays.copyOf(abandonedReleased, abandonedCount + pendingCount);
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            int key = pendingKeys[i];
+            abandonedKeys[abandonedCount] = key;
+            abandonedReleased[abandonedCount] = pendingReleased[i];
+            abandonedCount++;
+            // Replayed as a press, so the game must get the release as well
+            swallowed[stateTrie.symbolOf(key)] = false;
+        }
+        pendingCount = 0;
+    }
+    
+    private void resetState(Trie t) {
+        // Bindings changed mid-sequence; the keys typed so far still count as typed
+        if (stateTrie != null) {
+            abandon();
+        }
+        stateTrie = t;
+        state = 0;
+        held = new boolean[t.symbolCount];
+        swallowed = new boolean[t.symbolCount];
+        pendingKeys = new int[t.maxDepth];
+        pendingReleased = new boolean[t.maxDepth];
+    }
+    
+    private boolean allHeld(Trie t, int[] keys) {
+        for (int key : keys) {
+            if (!held[t.symbolOf(key)]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void compile() {
+        // Assign dense symbols to every key used in a trigger
+        int[] keyToSymbol = new int[MAX_TRIGGER_KEY];
+        Arrays.fill(keyToSymbol, -1);
+        int symbolCount = 0;
+        int maxDepth = 0;
+        for (Macro macro : macros.values()) {
+            maxDepth = Math.max(maxDepth, macro.triggerKeys.length);
+            for (int key : macro.triggerKeys) {
+                if (key < 0 || key >= MAX_TRIGGER_KEY) {
+                    throw new IllegalArgumentException("Unsupported trigger key in macro " + macro.getName() + ": " + key);
+                }
+                if (keyToSymbol[key] < 0) {
+                    keyToSymbol[key] = symbolCount++;
+                }
+            }
+        }
+        
+        // Build the trie with growable node lists, chords as every press order
+        List<int[]> nodes = new ArrayList<>();
+        List<Macro> accepting = new ArrayList<>();
+        nodes.add(newNode(symbolCount));
+        accepting.add(null);
+        
+        for (Macro macro : macros.values()) {
+            List<int[]> paths = macro.chord ? permutations(macro.triggerKeys) : List.of(macro.triggerKeys);
+            for (int[] path : paths) {
+                int node = 0;
+                for (int i = 0; i < path.length; i++) {
+                    if (accepting.get(node) != null) {
+                        throw conflict(macro, accepting.get(node));
+                    }
+                    int symbol = keyToSymbol[path[i]];
+                    int next = nodes.get(node)[symbol];
+                    if (next < 0) {
+                        next = nodes.size();
+                        nodes.add(newNode(symbolCount));
+                        accepting.add(null);
+                        nodes.get(node)[symbol] = next;
+                    }
+                    node = next;
+                }
+                
+                Macro existing = accepting.get(node);
+                if (existing != null && existing != macro) {
+                    throw conflict(macro, existing);
+                }
+                if (hasChildren(nodes.get(node))) {
+                    throw new IllegalArgumentException("Macro " + macro.getName() + " is a prefix of another macro");
+                }
+                accepting.set(node, macro);
+            }
+        }
+        
+        int[] transitions = new int[Math.max(1, nodes.size() * symbolCount)];
+        for (int i = 0; i < nodes.size(); i++) {
+            System.arraycopy(nodes.get(i), 0, transitions, i * symbolCount, symbolCount);
+        }
+        
+        trie = new Trie(keyToSymbol, symbolCount, transitions, accepting.toArray(new Macro[0]), maxDepth);
+    }
+    
+    private static int[] newNode(int symbolCount) {
+        int[] node = new int[symbolCount];
+        Arrays.fill(node, -1);
+        return node;
+    }
+    
+    private static boolean hasChildren(int[] node) {
+        for (int next : node) {
+            if (next >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static IllegalArgumentException conflict(Macro macro, Macro existing) {
+        return new IllegalArgumentException("Macro " + macro.getName() + " conflicts with " + existing.getName());
+    }
+    
+    private static List<int[]> permutations(int[] keys) {
+        List<int[]> result = new ArrayList<>();
+        permute(keys.clone(), 0, result);
+        return result;
+    }
+    
+    private static void permute(int[] keys, int start, List<int[]> result) {
+        if (start == keys.length) {
+            result.add(keys.clone());
+            return;
+        }
+        for (int i = start; i < keys.length; i++) {
+            swap(keys, start, i);
+            permute(keys, start + 1, result);
+            swap(keys, start, i);
+        }
+    }
+    
+    private static void swap(int[] keys, int a, int b) {
+        int tmp = keys[a];
+        keys[a] = keys[b];
+        keys[b] = tmp;
+    }
+    
+    /**
+     * Parses a T9 sequence such as "8-8-5", "L, 2, OK" or "* 0 #"
+     */
+    public static int[] parseT9Sequence(String sequence) {
+        String[] tokens = sequence.trim().split("[\\s,-]+");
+        int[] keys = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            keys[i] = parseT9Key(tokens[i]);
+        }
+        return keys;
+    }
+    
+    /**
+     * Writes output keys back in the form parseT9Sequence reads, such as "8-8-5"
+     */
+    public static String formatT9Sequence(int[] keys) {
+        StringBuilder text = new StringBuilder();
+        for (int key : keys) {
+            if (text.length() > 0) {
+                text.append('-');
+            }
+            text.append(t9KeyName(key));
+        }
+        return text.toString();
+    }
+    
+    private static String t9KeyName(int keyCode) {
+        return switch (keyCode) {
+            case KeyEvent.VK_NUMPAD0 -> "0";
+            case KeyEvent.VK_NUMPAD1 -> "1";
+            case KeyEvent.VK_NUMPAD2 -> "2";
+            case KeyEvent.VK_NUMPAD3 -> "3";
+            case KeyEvent.VK_NUMPAD4 -> "4";
+            case KeyEvent.VK_NUMPAD5 -> "5";
+            case KeyEvent.VK_NUMPAD6 -> "6";
+            case KeyEvent.VK_NUMPAD7 -> "7";
+            case KeyEvent.VK_NUMPAD8 -> "8";
+            case KeyEvent.VK_NUMPAD9 -> "9";
+            case KeyEvent.VK_MULTIPLY -> "*";
+            case KeyEvent.VK_ADD -> "#";
+            case KeyEvent.VK_UP -> "UP";
+            case KeyEvent.VK_DOWN -> "DOWN";
+            case KeyEvent.VK_LEFT -> "LEFT";
+            case KeyEvent.VK_RIGHT -> "RIGHT";
+            case KeyEvent.VK_ENTER -> "OK";
+            case KEY_SOFT_LEFT -> "L";
+            case KEY_SOFT_RIGHT -> "R";
+            case KEY_CALL -> "CALL";
+            case KEY_DISCONNECT -> "END";
+            default -> throw new IllegalArgumentException("Not a T9 key: " + keyCode);
+        };
+    }
+    
+    private static int parseT9Key(String token) {
+        return switch (token.toUpperCase()) {
+            case "0" -> KeyEvent.VK_NUMPAD0;
+            case "1" -> KeyEvent.VK_NUMPAD1;
+            case "2" -> KeyEvent.VK_NUMPAD2;
+            case "3" -> KeyEvent.VK_NUMPAD3;
+            case "4" -> KeyEvent.VK_NUMPAD4;
+            case "5" -> KeyEvent.VK_NUMPAD5;
+            case "6" -> KeyEvent.VK_NUMPAD6;
+            case "7" -> KeyEvent.VK_NUMPAD7;
+            case "8" -> KeyEvent.VK_NUMPAD8;
+            case "9" -> KeyEvent.VK_NUMPAD9;
+            case "*" -> KeyEvent.VK_MULTIPLY;
+            case "#" -> KeyEvent.VK_ADD;
+            case "UP" -> KeyEvent.VK_UP;
+            case "DOWN" -> KeyEvent.VK_DOWN;
+            case "LEFT" -> KeyEvent.VK_LEFT;
+            case "RIGHT" -> KeyEvent.VK_RIGHT;
+            case "OK" -> KeyEvent.VK_ENTER;
+            case "L" -> KEY_SOFT_LEFT;
+            case "R" -> KEY_SOFT_RIGHT;
+            case "CALL" -> KEY_CALL;
+            case "END" -> KEY_DISCONNECT;
+            default -> throw new IllegalArgumentException("Unknown T9 key: " + token);
+        };
+    }
+}
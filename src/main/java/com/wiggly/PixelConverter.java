@@ -0,0 +1,209 @@
+package com.wiggly;
+
+/**
+ * Per-frame pixel post-processing for the display filter
+ * Emulates phone colour depths (16-bit 565, 12-bit 444), LCD gamma and
+ * scanlines on 0xRRGGBB pixels in place. Tables are precomputed when the
+ * mode changes, so converting a frame is a table or bit operation per pixel.
+ * This class is the scalar path; create() picks the SIMD subclass at
+ * startup when the JVM runs with --add-modules jdk.incubator.vector.
+ */
+public class PixelConverter {
+    
+    // Set to false to force the scalar path even when SIMD is available
+    public static final String SIMD_PROPERTY = "wiggly.simd";
+    
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_CLASS = "com.wiggly.VectorPixelConverter";
+    
+    // Channels are darkened by a quarter on scanline rows
+    static final int SCANLINE_MASK = 0x3F3F3F;
+    
+    private static final boolean SIMD = detectSimd();
+    
+    /**
+     * Display filter modes
+     */
+    public enum Mode {
+        OFF("Off", 8, 8, 8, 1.0, false),
+        RGB565("16-bit", 5, 6, 5, 1.0, false),
+        RGB444("12-bit", 4, 4, 4, 1.0, false),
+        SCANLINES("Scanlines", 8, 8, 8, 1.0, true),
+        LCD("LCD", 4, 4, 4, 1.2, true);
+        
+        private final String displayName;
+        final int redBits;
+        final int greenBits;
+        final int blueBits;
+        final double gamma;
+        final boolean scanlines;
+        
+        Mode(String displayName, int redBits, int greenBits, int blueBits, double gamma, boolean scanlines) {
+            this.displayName = displayName;
+            this.redBits = redBits;
+            this.greenBits = greenBits;
+            this.blueBits = blueBits;
+            this.gamma = gamma;
+            this.scanlines = scanlines;
+        }
+        
+        public String getDisplayName() {
+            return displayName;
+        }
+        
+        public static Mode fromDisplayName(String name) {
+            for (Mode mode : values()) {
+                if (mode.displayName.equals(name)) {
+                    return mode;
+                }
+            }
+            return OFF;
+        }
+    }
+    
+    /**
+     * Immutable precomputed form of one mode
+     */
+    static final class Tables {
+        final Mode mode;
+        
+        // Lookup path: result bits for each channel value, [row kind][value]
+        // where row kind 1 is a darkened scanline row
+        final int[][] red = new int[2][256];
+        final int[][] green = new int[2][256];
+        final int[][] blue = new int[2][256];
+        
+        // Bit path, usable when there is no gamma: keep the top bits of every
+        // channel, then copy them into the low bits shifted right by the depth
+        final boolean bitExact;
+        final int keepMask;
+        final int redShift;
+        final int greenShift;
+        final int blueShift;
+        final int redFill;
+        final int greenFill;
+        final int blueFill;
+        
+        Tables(Mode mode) {
+            this.mode = mode;
+            for (int value = 0; value < 256; value++) {
+                int corrected = mode.gamma == 1.0
+                    ? value
+                    : (int) Math.round(255.0 * Math.pow(value / 255.0, mode.gamma));
+                fill(red, value, quantize(corrected, mode.redBits), 16);
+                fill(green, value, quantize(corrected, mode.greenBits), 8);
+                fill(blue, value, quantize(corrected, mode.blueBits), 0);
+            }
+            
+            bitExact = mode.gamma == 1.0;
+            keepMask = keep(mode.redBits) << 16 | keep(mode.greenBits) << 8 | keep(mode.blueBits);
+            redShift = mode.redBits;
+            greenShift = mode.greenBits;
+            blueShift = mode.blueBits;
+            redFill = ((1 << (8 - mode.redBits)) - 1) << 16;
+            greenFill = ((1 << (8 - mode.greenBits)) - 1) << 8;
+            blueFill = (1 << (8 - mode.blueBits)) - 1;
+        }
+        
+        private static void fill(int[][] table, int value, int level, int shift) {
+            table[0][value] = level << shift;
+            table[1][value] = (level - (level >> 2)) << shift;
+        }
+        
+        private static int keep(int bits) {
+            return (0xFF << (8 - bits)) & 0xFF;
+        }
+        
+        /**
+         * Reduces a channel to the given depth and expands it back to 8 bits
+         * by repeating the top bits, as a phone display would show it
+         */
+        private static int quantize(int value, int bits) {
+            int kept = value & keep(bits);
+            return kept | (kept >> bits);
+        }
+    }
+    
+    protected volatile Tables tables = new Tables(Mode.OFF);
+    
+    /**
+     * Creates the converter for this JVM: SIMD if available, scalar otherwise
+     */
+    public static PixelConverter create() {
+        if (SIMD) {
+            try {
+                return (PixelConverter) Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("Warning: SIMD pixel conversion unavailable, using scalar path");
+                e.printStackTrace();
+            }
+        }
+        return new PixelConverter();
+    }
+    
+    private static boolean detectSimd() {
+        return !"false".equalsIgnoreCase(System.getProperty(SIMD_PROPERTY))
+            && ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent();
+    }
+    
+    public void setMode(Mode mode) {
+        if (tables.mode != mode) {
+            tables = new Tables(mode);
+        }
+    }
+    
+    public Mode getMode() {
+        return tables.mode;
+    }
+    
+    /**
+     * Short description of the active path, such as "SIMD, 8 lanes"
+     */
+    public String getImplementation() {
+        return "scalar";
+    }
+    
+    /**
+     * Converts a frame of 0xRRGGBB pixels in place
+     */
+    public void convert(int[] pixels, int width, int height) {
+        convert(pixels, width, 0, 0, width, height);
+    }
+    
+    /**
+     * Converts one rectangle of a frame in place; scanline rows follow the
+     * frame's own row numbers, so partial repaints line up
+     */
+    public void convert(int[] pixels, int stride, int x, int y, int width, int height) {
+        Tables t = tables;
+        if (t.mode == Mode.OFF) {
+            return;
+        }
+        for (int row = y; row < y + height; row++) {
+            convertRow(t, pixels, row * stride + x, width, t.mode.scanlines && (row & 1) == 1);
+        }
+    }
+    
+    protected void convertRow(Tables t, int[] pixels, int offset, int length, boolean scanline) {
+        int end = offset + length;
+        if (t.bitExact) {
+            for (int i = offset; i < end; i++) {
+                int kept = pixels[i] & t.keepMask;
+                int p = kept | ((kept >>> t.redShift) & t.redFill)
+                    | ((kept >>> t.greenShift) & t.greenFill)
+                    | ((kept >>> t.blueShift) & t.blueFill);
+                pixels[i] = scanline ? p - ((p >>> 2) & SCANLINE_MASK) : p;
+            }
+            return;
+        }
+        
+        int kind = scanline ? 1 : 0;
+        int[] red = t.red[kind];
+        int[] green = t.green[kind];
+        int[] blue = t.blue[kind];
+        for (int i = offset; i < end; i++) {
+            int p = pixels[i];
+            pixels[i] = red[(p >>> 16) & 0xFF] | green[(p >>> 8) & 0xFF] | blue[p & 0xFF];
+        }
+    }
+}
@@ -4,12 +4,17 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.LineBorder;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Visual settings dialog with T9 keyboard layout showing key assignments
+ * Built once and reused: showDialog refreshes the labels from the mapper
+ * instead of rebuilding the layout.
  */
 public class SettingsDialog extends JDialog {
     private KeyboardMapper keyMapper;
@@ -18,6 +23,11 @@ public class SettingsDialog extends JDialog {
     private Map<Integer, String> buttonBaseLabels;  // Store original labels
     private Integer pendingT9Key = null;
     
+    private final InputRouter inputRouter;
+    
+    // Puts the router in capture mode only while an assignment waits for a key
+    private final InputRouter.KeyAction keyCaptureAction = this::handleKeyCapture;
+    
     // T9 key codes for the visual keyboard
     private static final int[] T9_KEYS = {
         KeyEvent.VK_NUMPAD1, KeyEvent.VK_NUMPAD2, KeyEvent.VK_NUMPAD3,
@@ -37,9 +47,10 @@ public class SettingsDialog extends JDialog {
     private static final int KEY_RIGHT = KeyEvent.VK_RIGHT;
     private static final int KEY_OK = KeyEvent.VK_ENTER;
     
-    public SettingsDialog(Frame parent, KeyboardMapper keyMapper) {
+    public SettingsDialog(Frame parent, KeyboardMapper keyMapper, InputRouter inputRouter) {
         super(parent, "T9 Keyboard Settings", true);
         this.keyMapper = keyMapper;
+        this.inputRouter = inputRouter;
         this.workingMapping = new HashMap<>(keyMapper.getKeyMapping());
         this.keyButtons = new HashMap<>();
         this.buttonBaseLabels = new HashMap<>();
@@ -50,6 +61,24 @@ public class SettingsDialog extends JDialog {
         
         initUI();
         setLocationRelativeTo(parent);
+        
+        // Closing the window mid-assignment must not leave the capture attached
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentHidden(ComponentEvent e) {
+                cancelKeyAssignment();
+            }
+        });
+    }
+    
+    /**
+     * Shows the dialog with the mapper's current assignments
+     */
+    public void showDialog() {
+        workingMapping = new HashMap<>(keyMapper.getKeyMapping());
+        updateAllButtonLabels();
+        setLocationRelativeTo(getParent());
+        setVisible(true);
     }
     
     private void initUI() {
@@ -87,7 +116,7 @@ public class SettingsDialog extends JDialog {
         resetButton.addActionListener(e -> resetToDefault());
         
         JButton cancelButton = new JButton("Cancel");
-        cancelButton.addActionListener(e -> dispose());
+        cancelButton.addActionListener(e -> setVisible(false));
         
         JButton saveButton = new JButton("Save");
         saveButton.addActionListener(e -> saveSettings());
@@ -98,10 +127,6 @@ public class SettingsDialog extends JDialog {
         buttonPanel.add(saveButton);
         
         add(buttonPanel, BorderLayout.SOUTH);
-        
-        // Global key listener for capturing key presses
-        KeyboardFocusManager.getCurrentKeyboardFocusManager()
-            .addKeyEventDispatcher(this::handleKeyCapture);
     }
     
     private JPanel createKeyboardPanel() {
@@ -332,8 +357,12 @@ public class SettingsDialog extends JDialog {
     }
     
     private void startKeyAssignment(int t9Key, JButton button) {
+        cancelKeyAssignment();
         pendingT9Key = t9Key;
         
+        // Capture the next key press ahead of all other routing
+        inputRouter.beginCapture(keyCaptureAction);
+        
         // Highlight the button
         button.setBackground(new Color(255, 200, 0));
         button.setBorder(BorderFactory.createCompoundBorder(
@@ -367,20 +396,16 @@ public class SettingsDialog extends JDialog {
         
         int pressedKey = e.getKeyCode();
         
-        // Close any open assignment dialog
-        JButton button = keyButtons.get(pendingT9Key);
-        JDialog dialog = (JDialog) button.getClientProperty("assignDialog");
-        if (dialog != null) {
-            dialog.dispose();
-        }
-        
         // Cancel on ESC
         if (pressedKey == KeyEvent.VK_ESCAPE) {
-            resetButtonAppearance(button, pendingT9Key);
-            pendingT9Key = null;
+            cancelKeyAssignment();
             return true;
         }
         
+        JButton button = keyButtons.get(pendingT9Key);
+        closeAssignDialog(button);
+        detachKeyCapture();
+        
         // Update the mapping (reverse: QWERTY key -> T9 key)
         workingMapping.put(pressedKey, pendingT9Key);
         
@@ -396,6 +421,29 @@ public class SettingsDialog extends JDialog {
         return true;
     }
     
+    private void cancelKeyAssignment() {
+        if (pendingT9Key != null) {
+            JButton button = keyButtons.get(pendingT9Key);
+            closeAssignDialog(button);
+            resetButtonAppearance(button, pendingT9Key);
+            pendingT9Key = null;
+        }
+        detachKeyCapture();
+    }
+    
+    private void detachKeyCapture() {
+        inputRouter.endCapture(keyCaptureAction);
+    }
+    
+    private void closeAssignDialog(JButton button) {
+        // Close any open assignment dialog
+        JDialog dialog = (JDialog) button.getClientProperty("assignDialog");
+        if (dialog != null) {
+            dialog.dispose();
+            button.putClientProperty("assignDialog", null);
+        }
+    }
+    
     private void resetButtonAppearance(JButton button, int t9Key) {
         // Reset to original color based on button type
         if (t9Key == KEY_CALL) {
@@ -542,11 +590,19 @@ public class SettingsDialog extends JDialog {
             keyMapper.updateMapping(entry.getKey(), entry.getValue());
         }
         
+        // Persist the layout for the next start and for kiosk mode
+        try {
+            KeyProfile.save(KeyProfile.DEFAULT_PROFILE, keyMapper.getKeyMapping(), keyMapper.getMacroEngine().getMacros());
+        } catch (IOException e) {
+            System.err.println("Warning: Could not save key profile");
+            e.printStackTrace();
+        }
+        
         JOptionPane.showMessageDialog(this,
             "Key mappings saved successfully!",
             "Settings Saved",
             JOptionPane.INFORMATION_MESSAGE);
         
-        dispose();
+        setVisible(false);
     }
 }
@@ -0,0 +1,281 @@
+package com.wiggly;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Launcher-wide cache of decoded sound clips and rendered tones
+ * Everything is stored as mono 16-bit PCM in the AudioEngine format,
+ * so the mixer only ever adds samples together
+ */
+public class SoundCache {
+    
+    // ToneControl sequence tokens
+    private static final byte TONE_VERSION = -2;
+    private static final byte TONE_TEMPO = -3;
+    private static final byte TONE_RESOLUTION = -4;
+    private static final byte TONE_BLOCK_START = -5;
+    private static final byte TONE_BLOCK_END = -6;
+    private static final byte TONE_PLAY_BLOCK = -7;
+    private static final byte TONE_SET_VOLUME = -8;
+    private static final byte TONE_REPEAT = -9;
+    private static final byte TONE_SILENCE = -1;
+    
+    private static final int DEFAULT_TEMPO = 30;        // x4 = 120 BPM
+    private static final int DEFAULT_RESOLUTION = 64;   // 1/64 notes
+    private static final int TONE_AMPLITUDE = 6000;
+    private static final int MAX_CLIP_SECONDS = 30;
+    private static final int MAX_TONE_ENTRIES = 128;
+    
+    private static final SoundCache SHARED = new SoundCache();
+    
+    private final Map<String, short[]> clips;
+    private final Map<ByteBuffer, short[]> tones;
+    
+    public SoundCache() {
+        this.clips = new LinkedHashMap<>();
+        this.tones = new LinkedHashMap<>(32, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, short[]> eldest) {
+                return size() > MAX_TONE_ENTRIES;
+            }
+        };
+    }
+    
+    public static SoundCache getShared() {
+        return SHARED;
+    }
+    
+    /**
+     * Returns the decoded PCM of a sampled sound resource (WAV, AU, AIFF)
+     */
+    public short[] getClip(String jarHash, String path, ImageCache.ResourceSource source) throws IOException {
+        String key = jarHash + ":" + path;
+        synchronized (this) {
+            short[] cached = clips.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        
+        short[] decoded = decode(path, source);
+        synchronized (this) {
+            short[] existing = clips.putIfAbsent(key, decoded);
+            return existing != null ? existing : decoded;
+        }
+    }
+    
+    /**
+     * Drops all clips of one JAR
+     */
+    public synchronized void invalidate(String jarHash) {
+        clips.keySet().removeIf(key -> key.startsWith(jarHash + ":"));
+    }
+    
+    public short[] getTone(int note, int durationMs) {
+        byte[] sequence = {
+            TONE_VERSION, 1,
+            TONE_RESOLUTION, 100,
+            TONE_TEMPO, 60,             // one duration unit = 10 ms
+            (byte) note, (byte) Math.max(1, Math.min(127, durationMs / 10))
+        };
+        return getToneSequence(sequence);
+    }
+    
+    /**
+     * Renders a ToneControl sequence to PCM, reusing earlier renders
+     */
+    public short[] getToneSequence(byte[] sequence) {
+        ByteBuffer key = ByteBuffer.wrap(sequence.clone());
+        synchronized (tones) {
+            short[] cached = tones.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        
+        short[] rendered = new ToneRenderer(sequence).render();
+        synchronized (tones) {
+            tones.put(key, rendered);
+        }
+        return rendered;
+    }
+    
+    private static short[] decode(String path, ImageCache.ResourceSource source) throws IOException {
+        InputStream raw = source.open(path);
+        if (raw == null) {
+            throw new IOException("Sound not found: " + path);
+        }
+        
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(new BufferedInputStream(raw))) {
+            AudioFormat format = in.getFormat();
+            AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                format.getSampleRate(), 16, format.getChannels(), format.getChannels() * 2,
+                format.getSampleRate(), false);
+            
+            try (AudioInputStream converted = AudioSystem.getAudioInputStream(pcm, in)) {
+                byte[] bytes = converted.readNBytes((int) (pcm.getSampleRate() * pcm.getFrameSize() * MAX_CLIP_SECONDS));
+                return toEngineFormat(bytes, pcm.getChannels(), pcm.getSampleRate());
+            }
+        } catch (UnsupportedAudioFileException | IllegalArgumentException e) {
+            throw new IOException("Unsupported sound format: " + path, e);
+        }
+    }
+    
+    private static short[] toEngineFormat(byte[] bytes, int channels, float sampleRate) {
+        // Down-mix to mono
+        int frames = bytes.length / (2 * channels);
+        int[] mono = new int[frames];
+        for (int f = 0; f < frames; f++) {
+            int sum = 0;
+            for (int c = 0; c < channels; c++) {
+                int i = (f * channels + c) * 2;
+                sum += (short) ((bytes[i] & 0xFF) | (bytes[i + 1] << 8));
+            }
+            mono[f] = sum / channels;
+        }
+        
+        // Linear resample to the engine rate
+        double step = sampleRate / AudioEngine.SAMPLE_RATE;
+        int outFrames = (int) (frames / step);
+        short[] out = new short[outFrames];
+        for (int i = 0; i < outFrames; i++) {
+            double pos = i * step;
+            int index = (int) pos;
+            double frac = pos - index;
+            int a = mono[index];
+            int b = index + 1 < frames ? mono[index + 1] : a;
+            out[i] = (short) (a + (b - a) * frac);
+        }
+        return out;
+    }
+    
+    /**
+     * Square-wave synthesis of a ToneControl sequence
+     */
+    private static final class ToneRenderer {
+        private final byte[] sequence;
+        private final Map<Integer, Integer> blocks;
+        private int tempo = DEFAULT_TEMPO;
+        private int resolution = DEFAULT_RESOLUTION;
+        private int volume = 100;
+        private short[] out = new short[4096];
+        private int length;
+        
+        ToneRenderer(byte[] sequence) {
+            this.sequence = sequence;
+            this.blocks = new LinkedHashMap<>();
+        }
+        
+        short[] render() {
+            int i = 0;
+            while (i + 1 < sequence.length) {
+                byte token = sequence[i];
+                int value = sequence[i + 1];
+                switch (token) {
+                    case TONE_VERSION -> i += 2;
+                    case TONE_TEMPO -> {
+                        tempo = value & 0xFF;
+                        i += 2;
+                    }
+                    case TONE_RESOLUTION -> {
+                        resolution = value & 0xFF;
+                        i += 2;
+                    }
+                    case TONE_BLOCK_START -> {
+                        // Blocks are only played on demand; skip past the definition
+                        blocks.put(value, i + 2);
+                        i = skipBlock(i + 2, value);
+                    }
+                    default -> {
+                        int next = renderEvents(i, sequence.length, 0);
+                        // Skip unknown tokens rather than stall on them
+                        i = next > i ? next : i + 2;
+                    }
+                }
+            }
+            short[] result = new short[length];
+            System.arraycopy(out, 0, result, 0, length);
+            return result;
+        }
+        
+        private int renderEvents(int i, int end, int depth) {
+            while (i + 1 < end) {
+                byte token = sequence[i];
+                int value = sequence[i + 1];
+                if (token == TONE_BLOCK_END) {
+                    return i + 2;
+                } else if (token == TONE_PLAY_BLOCK) {
+                    Integer start = blocks.get(value);
+                    if (start != null && depth < 8) {
+                        renderEvents(start, end, depth + 1);
+                    }
+                    i += 2;
+                } else if (token == TONE_SET_VOLUME) {
+                    volume = Math.max(0, Math.min(100, value));
+                    i += 2;
+                } else if (token == TONE_REPEAT) {
+                    // Repeat the following note event
+                    if (i + 3 < end) {
+                        for (int r = 0; r < value; r++) {
+                            note(sequence[i + 2], sequence[i + 3]);
+                        }
+                    }
+                    i += 4;
+                } else if (token >= TONE_SILENCE) {
+                    note(token, value);
+                    i += 2;
+                } else {
+                    return i;
+                }
+            }
+            return end;
+        }
+        
+        private int skipBlock(int i, int blockNumber) {
+            while (i + 1 < sequence.length) {
+                if (sequence[i] == TONE_BLOCK_END && sequence[i + 1] == blockNumber) {
+                    return i + 2;
+                }
+                i += 2;
+            }
+            return sequence.length;
+        }
+        
+        private void note(int note, int duration) {
+            // MMAPI: ms = duration * 60000 * 4 / (resolution * bpm), with bpm = tempo * 4
+            double ms = duration * 60000.0 / (Math.max(1, resolution) * Math.max(1, tempo));
+            int samples = (int) (ms * AudioEngine.SAMPLE_RATE / 1000);
+            ensureCapacity(length + samples);
+            
+            if (note == TONE_SILENCE) {
+                length += samples;
+                return;
+            }
+            
+            double frequency = 440.0 * Math.pow(2, (note - 69) / 12.0);
+            double period = AudioEngine.SAMPLE_RATE / frequency;
+            int amplitude = TONE_AMPLITUDE * volume / 100;
+            for (int s = 0; s < samples; s++) {
+                out[length + s] = (short) ((s % period) < period / 2 ? amplitude : -amplitude);
+            }
+            length += samples;
+        }
+        
+        private void ensureCapacity(int size) {
+            if (size > out.length) {
+                short[] grown = new short[Math.max(size, out.length * 2)];
+                System.arraycopy(out, 0, grown, 0, length);
+                out = grown;
+            }
+        }
+    }
+}
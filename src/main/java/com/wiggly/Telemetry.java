@@ -0,0 +1,300 @@
+package com.wiggly;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import javax.management.ObjectName;
+import javax.swing.JComponent;
+import javax.swing.RepaintManager;
+import java.awt.Component;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Launcher telemetry for unattended machines
+ * Emits Flight Recorder events for game loading, key translation, frame
+ * presentation and fullscreen changes, and publishes counters as a JMX
+ * MBean, so jcmd, JMC or any JMX console can watch a running launcher.
+ * Disabled events cost one flag check.
+ */
+public class Telemetry implements TelemetryMBean {
+    
+    public static final String OBJECT_NAME = "com.wiggly:type=Telemetry";
+    
+    // Client property marking a game surface; repaints below it count as frames
+    static final String GAME_SURFACE_PROPERTY = "wiggly.gameSurface";
+    
+    private static final long FPS_WINDOW_NANOS = 1_000_000_000L;
+    
+    private static final Telemetry SHARED = new Telemetry();
+    
+    private final AtomicLong keysTranslated = new AtomicLong();
+    private final AtomicLong robotFailures = new AtomicLong();
+    private final AtomicLong gamesLoaded = new AtomicLong();
+    private final AtomicLong framesPresented = new AtomicLong();
+    private final AtomicLong framesSkipped = new AtomicLong();
+    private final List<WeakReference<ClassLoader>> classLoaders = new ArrayList<>();
+    private volatile long lastLoadTimeMillis;
+    private volatile double currentFps;
+    private volatile long lastFrameNanos;
+    private boolean registered;
+    
+    // Frame rate window, only touched on the event thread
+    private long windowStartNanos;
+    private int windowFrames;
+    
+    @Name("com.wiggly.GameLoad")
+    @Label("Game Load Phase")
+    @Category({"Wiggly", "Games"})
+    @Description("One phase of loading a game JAR")
+    static class GameLoadEvent extends Event {
+        @Label("JAR")
+        String jar;
+        
+        @Label("Phase")
+        String phase;
+    }
+    
+    @Name("com.wiggly.KeyTranslated")
+    @Label("Key Translated")
+    @Category({"Wiggly", "Input"})
+    @Description("A keyboard key translated to a T9 key or consumed by a macro")
+    static class KeyTranslatedEvent extends Event {
+        @Label("Source Key")
+        int sourceKey;
+        
+        @Label("T9 Key")
+        int targetKey;
+        
+        @Label("Pressed")
+        boolean pressed;
+        
+        @Label("Macro")
+        boolean macro;
+    }
+    
+    @Name("com.wiggly.FramePresented")
+    @Label("Frame Presented")
+    @Category({"Wiggly", "Rendering"})
+    @Description("A Swing repaint pass that painted at least one game surface")
+    static class FramePresentedEvent extends Event {
+    }
+    
+    @Name("com.wiggly.FullscreenTransition")
+    @Label("Fullscreen Transition")
+    @Category({"Wiggly", "Window"})
+    @Description("Entering or leaving fullscreen, including re-creating the window")
+    static class FullscreenTransitionEvent extends Event {
+        @Label("Entering")
+        boolean entering;
+    }
+    
+    /**
+     * Counts repaint passes that draw a game surface as presented frames
+     * A pass only counts if the display filter reports that it painted,
+     * since it skips repaints that changed no pixels.
+     */
+    private static final class FrameRepaintManager extends RepaintManager {
+        private volatile boolean gameDirty;
+        // Set by framePainted during a pass; event thread only
+        private boolean painted;
+        
+        @Override
+        public void addDirtyRegion(JComponent c, int x, int y, int w, int h) {
+            super.addDirtyRegion(c, x, y, w, h);
+            if (!gameDirty) {
+                for (Component p = c; p != null; p = p.getParent()) {
+                    if (p instanceof JComponent && ((JComponent) p).getClientProperty(GAME_SURFACE_PROPERTY) != null) {
+                        gameDirty = true;
+                        break;
+                    }
+                }
+            }
+        }
+        
+        @Override
+        public void paintDirtyRegions() {
+            if (!gameDirty) {
+                super.paintDirtyRegions();
+                return;
+            }
+            gameDirty = false;
+            painted = false;
+            FramePresentedEvent event = new FramePresentedEvent();
+            event.begin();
+            super.paintDirtyRegions();
+            if (painted) {
+                event.commit();
+                SHARED.framePresented();
+            }
+        }
+    }
+    
+    private Telemetry() {
+    }
+    
+    /**
+     * Returns the shared instance, registering the MBean on first use
+     */
+    public static Telemetry getShared() {
+        SHARED.register();
+        return SHARED;
+    }
+    
+    private synchronized void register() {
+        if (registered) {
+            return;
+        }
+        registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            System.err.println("Warning: Could not register telemetry MBean");
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Replaces the Swing repaint manager so game frames are counted; call on the event thread
+     */
+    public void installFrameCounter() {
+        if (!(RepaintManager.currentManager((JComponent) null) instanceof FrameRepaintManager)) {
+            RepaintManager.setCurrentManager(new FrameRepaintManager());
+        }
+    }
+    
+    static GameLoadEvent beginLoadPhase(String jar, String phase) {
+        GameLoadEvent event = new GameLoadEvent();
+        if (event.isEnabled()) {
+            event.jar = jar;
+            event.phase = phase;
+            event.begin();
+        }
+        return event;
+    }
+    
+    static FullscreenTransitionEvent beginFullscreenTransition(boolean entering) {
+        FullscreenTransitionEvent event = new FullscreenTransitionEvent();
+        if (event.isEnabled()) {
+            event.entering = entering;
+            event.begin();
+        }
+        return event;
+    }
+    
+    void keyTranslated(int sourceKey, int targetKey, boolean pressed, boolean macro) {
+        keysTranslated.incrementAndGet();
+        KeyTranslatedEvent event = new KeyTranslatedEvent();
+        if (event.isEnabled()) {
+            event.sourceKey = sourceKey;
+            event.targetKey = targetKey;
+            event.pressed = pressed;
+            event.macro = macro;
+            event.commit();
+        }
+    }
+    
+    void robotFailure() {
+        robotFailures.incrementAndGet();
+    }
+    
+    void gameLoaded(long millis) {
+        gamesLoaded.incrementAndGet();
+        lastLoadTimeMillis = millis;
+    }
+    
+    /**
+     * A game repaint that changed no pixels and was not presented
+     */
+    void frameSkipped() {
+        framesSkipped.incrementAndGet();
+    }
+    
+    /**
+     * Called on the event thread when a game frame was actually drawn
+     */
+    void framePainted() {
+        RepaintManager manager = RepaintManager.currentManager((JComponent) null);
+        if (manager instanceof FrameRepaintManager) {
+            ((FrameRepaintManager) manager).painted = true;
+        }
+    }
+    
+    synchronized void classLoaderCreated(ClassLoader loader) {
+        classLoaders.add(new WeakReference<>(loader));
+    }
+    
+    private void framePresented() {
+        framesPresented.incrementAndGet();
+        long now = System.nanoTime();
+        lastFrameNanos = now;
+        if (windowFrames == 0) {
+            windowStartNanos = now;
+        }
+        windowFrames++;
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= FPS_WINDOW_NANOS) {
+            currentFps = (windowFrames - 1) * 1e9 / elapsed;
+            windowStartNanos = now;
+            windowFrames = 1;
+        }
+    }
+    
+    @Override
+    public long getKeysTranslated() {
+        return keysTranslated.get();
+    }
+    
+    @Override
+    public long getRobotFailures() {
+        return robotFailures.get();
+    }
+    
+    @Override
+    public long getGamesLoaded() {
+        return gamesLoaded.get();
+    }
+    
+    @Override
+    public long getLastLoadTimeMillis() {
+        return lastLoadTimeMillis;
+    }
+    
+    @Override
+    public double getCurrentFps() {
+        // A game that stopped painting reads 0, not its last rate
+        return System.nanoTime() - lastFrameNanos > 2 * FPS_WINDOW_NANOS ? 0 : currentFps;
+    }
+    
+    @Override
+    public long getFramesPresented() {
+        return framesPresented.get();
+    }
+    
+    @Override
+    public long getFramesSkipped() {
+        return framesSkipped.get();
+    }
+    
+    /**
+     * Game class loaders not yet garbage collected; a count that keeps
+     * growing after games are closed points to a leak
+     */
+    @Override
+    public synchronized int getLiveClassLoaders() {
+        Iterator<WeakReference<ClassLoader>> it = classLoaders.iterator();
+        while (it.hasNext()) {
+            if (it.next().get() == null) {
+                it.remove();
+            }
+        }
+        return classLoaders.size();
+    }
+}
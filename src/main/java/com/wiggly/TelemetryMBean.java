@@ -0,0 +1,23 @@
+package com.wiggly;
+
+/**
+ * Launcher counters published over JMX as com.wiggly:type=Telemetry
+ */
+public interface TelemetryMBean {
+    
+    long getKeysTranslated();
+    
+    long getRobotFailures();
+    
+    long getGamesLoaded();
+    
+    long getLastLoadTimeMillis();
+    
+    double getCurrentFps();
+    
+    long getFramesPresented();
+    
+    long getFramesSkipped();
+    
+    int getLiveClassLoaders();
+}
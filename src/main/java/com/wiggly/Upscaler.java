@@ -0,0 +1,169 @@
+package com.wiggly;
+
+import java.util.concurrent.Phaser;
+
+/**
+ * Nearest-neighbour frame scaler for fullscreen output
+ * The output is split into horizontal stripes, one per thread: a fixed
+ * set of daemon workers plus the calling thread. A phaser releases the
+ * workers at the start of each frame and collects them at the end, and
+ * each worker keeps its own column table, so scaling a frame allocates
+ * nothing once the sizes settle. Small outputs are scaled on the caller.
+ */
+public class Upscaler {
+    
+    // Outputs smaller than this are not worth waking the workers for
+    private static final int PARALLEL_THRESHOLD = 256 * 1024;
+    
+    private static final Upscaler SHARED = new Upscaler(Runtime.getRuntime().availableProcessors());
+    
+    private final int stripes;
+    private final Phaser phaser;
+    private final Stripe[] stripeState;
+    
+    // Current frame, written by the caller before the start barrier
+    private int[] source;
+    private int sourceWidth;
+    private int sourceHeight;
+    private int[] target;
+    private int targetWidth;
+    private int targetHeight;
+    private int regionX;
+    private int regionY;
+    private int regionWidth;
+    private int regionHeight;
+    
+    /**
+     * Per-thread state, reused from frame to frame
+     */
+    private final class Stripe implements Runnable {
+        private final int index;
+        private int[] columns = new int[0];
+        private int columnsFor = -1;
+        private int columnsTo = -1;
+        
+        Stripe(int index) {
+            this.index = index;
+        }
+        
+        @Override
+        public void run() {
+            // Start barrier, stripe, end barrier; termination ends the loop
+            while (phaser.arriveAndAwaitAdvance() >= 0) {
+                try {
+                    scale(stripes);
+                } catch (RuntimeException e) {
+                    System.err.println("Error: Upscaler stripe " + index + " failed");
+                    e.printStackTrace();
+                }
+                if (phaser.arriveAndAwaitAdvance() < 0) {
+                    return;
+                }
+            }
+        }
+        
+        void scale(int count) {
+            int from = regionY + (int) ((long) regionHeight * index / count);
+            int to = regionY + (int) ((long) regionHeight * (index + 1) / count);
+            if (columnsFor != sourceWidth || columnsTo != targetWidth) {
+                if (columns.length != targetWidth) {
+                    columns = new int[targetWidth];
+                }
+                for (int x = 0; x < targetWidth; x++) {
+                    columns[x] = (int) ((long) x * sourceWidth / targetWidth);
+                }
+                columnsFor = sourceWidth;
+                columnsTo = targetWidth;
+            }
+            
+            int previousRow = -1;
+            for (int y = from; y < to; y++) {
+                int sourceRow = (int) ((long) y * sourceHeight / targetHeight);
+                int out = y * targetWidth;
+                if (sourceRow == previousRow) {
+                    // Repeated rows are copies of the one just written
+                    System.arraycopy(target, out - targetWidth + regionX, target, out + regionX, regionWidth);
+                    continue;
+                }
+                int in = sourceRow * sourceWidth;
+                for (int x = regionX; x < regionX + regionWidth; x++) {
+                    target[out + x] = source[in + columns[x]];
+                }
+                previousRow = sourceRow;
+            }
+        }
+    }
+    
+    /**
+     * Creates a scaler using the given number of threads, counting the caller
+     */
+    public Upscaler(int threads) {
+        this.stripes = Math.max(1, threads);
+        this.phaser = new Phaser(stripes);
+        this.stripeState = new Stripe[stripes];
+        
+        // Stripe 0 runs on the calling thread
+        stripeState[0] = new Stripe(0);
+        for (int i = 1; i < stripes; i++) {
+            stripeState[i] = new Stripe(i);
+            Thread worker = new Thread(stripeState[i], "wiggly-upscaler-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+    
+    public static Upscaler getShared() {
+        return SHARED;
+    }
+    
+    public int getThreads() {
+        return stripes;
+    }
+    
+    /**
+     * Scales a frame of pixels into a larger (or smaller) one
+     */
+    public void scale(int[] source, int sourceWidth, int sourceHeight,
+                      int[] target, int targetWidth, int targetHeight) {
+        scale(source, sourceWidth, sourceHeight, target, targetWidth, targetHeight,
+            0, 0, targetWidth, targetHeight);
+    }
+    
+    /**
+     * Scales only the given area of the target, leaving the rest untouched
+     */
+    public synchronized void scale(int[] source, int sourceWidth, int sourceHeight,
+                                   int[] target, int targetWidth, int targetHeight,
+                                   int x, int y, int width, int height) {
+        this.source = source;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.target = target;
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.regionX = x;
+        this.regionY = y;
+        this.regionWidth = width;
+        this.regionHeight = height;
+        
+        if (stripes == 1 || (long) width * height < PARALLEL_THRESHOLD || phaser.isTerminated()) {
+            stripeState[0].scale(1);
+            return;
+        }
+        
+        phaser.arriveAndAwaitAdvance();
+        try {
+            stripeState[0].scale(stripes);
+        } finally {
+            // Always arrive, or the workers would fall a phase behind
+            phaser.arriveAndAwaitAdvance();
+        }
+    }
+    
+    /**
+     * Stops the worker threads; later frames are scaled on the caller
+     */
+    public void close() {
+        phaser.forceTermination();
+    }
+}
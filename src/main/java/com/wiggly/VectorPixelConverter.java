@@ -0,0 +1,48 @@
+package com.wiggly;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD path of the pixel converter, using the incubating Vector API
+ * Only loaded by PixelConverter.create() when the module is present.
+ * Depth reduction and scanlines are plain lane-wise bit operations.
+ * Gamma modes keep the scalar table lookups, which measured faster
+ * than vector gathers from the same tables.
+ */
+final class VectorPixelConverter extends PixelConverter {
+    
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    
+    @Override
+    public String getImplementation() {
+        return "SIMD, " + SPECIES.length() + " lanes";
+    }
+    
+    @Override
+    protected void convertRow(Tables t, int[] pixels, int offset, int length, boolean scanline) {
+        if (!t.bitExact) {
+            super.convertRow(t, pixels, offset, length, scanline);
+            return;
+        }
+        
+        int bound = SPECIES.loopBound(length);
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            IntVector kept = IntVector.fromArray(SPECIES, pixels, offset + i).and(t.keepMask);
+            IntVector out = kept
+                .or(kept.lanewise(VectorOperators.LSHR, t.redShift).and(t.redFill))
+                .or(kept.lanewise(VectorOperators.LSHR, t.greenShift).and(t.greenFill))
+                .or(kept.lanewise(VectorOperators.LSHR, t.blueShift).and(t.blueFill));
+            if (scanline) {
+                out = out.sub(out.lanewise(VectorOperators.LSHR, 2).and(SCANLINE_MASK));
+            }
+            out.intoArray(pixels, offset + i);
+        }
+        
+        // Pixels past the last full vector
+        if (bound < length) {
+            super.convertRow(t, pixels, offset + bound, length - bound, scanline);
+        }
+    }
+}
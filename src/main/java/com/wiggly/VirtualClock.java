@@ -0,0 +1,198 @@
+package com.wiggly;
+
+import java.awt.EventQueue;
+
+/**
+ * Launcher-controlled clock for hosted games
+ * Game classes are rewritten at load time so their time and sleep calls
+ * land here, which lets the launcher run them faster than real time
+ * (turbo) and let them catch up when the host falls behind: sleeps are
+ * shortened to repay time lost to late wake-ups, so game logic skips
+ * ahead instead of drifting. While paused, time stands still and game
+ * threads are held at their next sleep or timed wait; time queries never
+ * block, so a game thread holding a lock cannot stall the others.
+ */
+public final class VirtualClock {
+    
+    public static final int MIN_SPEED = 1;
+    public static final int MAX_SPEED = 8;
+    
+    // Sleeps are shortened by at most this much to make up for late wake-ups
+    private static final long MAX_CATCH_UP_NANOS = 100_000_000L;
+    
+    // Timed waits check for a resume this often while paused
+    private static final long PAUSED_WAIT_SLICE_MS = 50;
+    
+    private static final Object LOCK = new Object();
+    private static final long EPOCH_OFFSET_MILLIS = System.currentTimeMillis() - System.nanoTime() / 1_000_000;
+    
+    // virtual = baseVirtual + (real - baseReal) * speed
+    private static long baseReal = System.nanoTime();
+    private static long baseVirtual = baseReal;
+    private static volatile int speed = MIN_SPEED;
+    private static volatile boolean paused;
+    
+    // Time the game overslept because the host was busy, paid back on later sleeps
+    private static final ThreadLocal<long[]> sleepDebt = ThreadLocal.withInitial(() -> new long[1]);
+    
+    private VirtualClock() {
+    }
+    
+    public static int getSpeed() {
+        return speed;
+    }
+    
+    /**
+     * Sets the speed multiplier, from 1x (real time) to 8x
+     */
+    public static void setSpeed(int newSpeed) {
+        int clamped = Math.max(MIN_SPEED, Math.min(MAX_SPEED, newSpeed));
+        synchronized (LOCK) {
+            long real = System.nanoTime();
+            baseVirtual = virtualNanos(real);
+            baseReal = real;
+            speed = clamped;
+        }
+        GameScheduler.getShared().clockChanged();
+    }
+    
+    public static boolean isPaused() {
+        return paused;
+    }
+    
+    /**
+     * Freezes or resumes virtual time for all games
+     */
+    public static void setPaused(boolean pause) {
+        synchronized (LOCK) {
+            if (pause == paused) {
+                return;
+            }
+            long real = System.nanoTime();
+            baseVirtual = virtualNanos(real);
+            baseReal = real;
+            paused = pause;
+            if (!pause) {
+                LOCK.notifyAll();
+            }
+        }
+        GameScheduler.getShared().clockChanged();
+    }
+    
+    /**
+     * Virtual time for the launcher's own scheduling, without throttling
+     */
+    static long now() {
+        return virtualNanos(System.nanoTime());
+    }
+    
+    /**
+     * Converts a span of virtual time into the real time it takes at the
+     * current speed; Long.MAX_VALUE while paused, as it never passes
+     */
+    static long toRealNanos(long virtualNanos) {
+        return paused ? Long.MAX_VALUE : virtualNanos / speed;
+    }
+    
+    static long toEpochMillis(long virtualNanos) {
+        return EPOCH_OFFSET_MILLIS + virtualNanos / 1_000_000;
+    }
+    
+    // --- Replacements for the redirected game calls ---
+    
+    public static long currentTimeMillis() {
+        return toEpochMillis(nanoTime());
+    }
+    
+    public static long nanoTime() {
+        GameMonitor.throttle();
+        return virtualNanos(System.nanoTime());
+    }
+    
+    public static void sleep(long millis) throws InterruptedException {
+        sleep(millis, 0);
+    }
+    
+    public static void sleep(long millis, int nanos) throws InterruptedException {
+        if (millis < 0 || nanos < 0 || nanos > 999_999) {
+            throw new IllegalArgumentException("Invalid sleep: " + millis + "ms " + nanos + "ns");
+        }
+        awaitResume();
+        GameMonitor.throttle();
+        long[] debt = sleepDebt.get();
+        long requested = (millis * 1_000_000L + nanos) / speed;
+        
+        // Skip (part of) the delay if earlier sleeps woke up late
+        long payback = Math.min(debt[0], requested);
+        debt[0] -= payback;
+        long target = requested - payback;
+        if (target <= 0) {
+            Thread.yield();
+            return;
+        }
+        
+        long start = System.nanoTime();
+        Thread.sleep(target / 1_000_000, (int) (target % 1_000_000));
+        long late = System.nanoTime() - start - target;
+        if (late > 0) {
+            debt[0] = Math.min(MAX_CATCH_UP_NANOS, debt[0] + late);
+        }
+    }
+    
+    public static void wait(Object monitor, long millis) throws InterruptedException {
+        wait(monitor, millis, 0);
+    }
+    
+    public static void wait(Object monitor, long millis, int nanos) throws InterruptedException {
+        if (millis < 0 || nanos < 0 || nanos > 999_999) {
+            throw new IllegalArgumentException("Invalid wait: " + millis + "ms " + nanos + "ns");
+        }
+        if (millis == 0 && nanos == 0) {
+            // Untimed wait is unaffected by the clock
+            monitor.wait();
+            return;
+        }
+        if (awaitResume(monitor)) {
+            // Woken while paused; callers recheck their condition as for a spurious wake-up
+            return;
+        }
+        long scaled = (millis * 1_000_000L + nanos) / speed;
+        monitor.wait(Math.max(1, scaled / 1_000_000), 0);
+    }
+    
+    static void awaitResume() throws InterruptedException {
+        // Never hold up the event thread, which games also paint from
+        if (!paused || EventQueue.isDispatchThread()) {
+            return;
+        }
+        synchronized (LOCK) {
+            while (paused) {
+                LOCK.wait();
+            }
+        }
+    }
+    
+    /**
+     * Holds a timed wait while paused, waiting on the game's own monitor so
+     * it stays released; returns true if the wait ended early, as a notify does
+     */
+    private static boolean awaitResume(Object monitor) throws InterruptedException {
+        if (EventQueue.isDispatchThread()) {
+            return false;
+        }
+        while (paused) {
+            long start = System.nanoTime();
+            monitor.wait(PAUSED_WAIT_SLICE_MS);
+            if (System.nanoTime() - start < PAUSED_WAIT_SLICE_MS * 1_000_000L) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static long virtualNanos(long real) {
+        synchronized (LOCK) {
+            return paused ? baseVirtual : baseVirtual + (real - baseReal) * speed;
+        }
+    }
+}
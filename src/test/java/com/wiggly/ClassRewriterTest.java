@@ -0,0 +1,222 @@
+package com.wiggly;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trip through the ClassRewriter: a sample class is rewritten,
+ * loaded and verified, and its calls are checked to land on the launcher
+ */
+class ClassRewriterTest {
+    
+    /**
+     * Game code as the rewriter sees it, compiled with the test sources
+     */
+    public static class Sample {
+        
+        public static long nanoTime() {
+            return System.nanoTime();
+        }
+        
+        public static long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+        
+        // Dense cases compile to a tableswitch; the sleep after it must still be found
+        public static int sleepAfterTableSwitch(int key, long millis) throws InterruptedException {
+            int result;
+            switch (key) {
+                case 0: result = 10; break;
+                case 1: result = 11; break;
+                case 2: result = 12; break;
+                case 3: result = 13; break;
+                default: result = -1;
+            }
+            Thread.sleep(millis);
+            return result;
+        }
+        
+        // Sparse cases compile to a lookupswitch
+        public static int waitAfterLookupSwitch(int key, long millis) throws InterruptedException {
+            int result;
+            switch (key) {
+                case 7: result = 1; break;
+                case 700: result = 2; break;
+                case 70000: result = 3; break;
+                default: result = -1;
+            }
+            Object monitor = new Object();
+            synchronized (monitor) {
+                monitor.wait(millis);
+            }
+            return result;
+        }
+        
+        public static Timer newTimer() {
+            return new Timer();
+        }
+        
+        public static Thread newThread(Runnable target) {
+            return new Thread(target);
+        }
+        
+        public static Tick newTick(CountDownLatch ran) {
+            return new Tick(ran);
+        }
+        
+        public static class Tick extends TimerTask {
+            private final CountDownLatch ran;
+            
+            Tick(CountDownLatch ran) {
+                this.ran = ran;
+            }
+            
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }
+    }
+    
+    /**
+     * Loads the sample classes from their rewritten bytes, everything else from the parent
+     */
+    private static final class RewritingLoader extends ClassLoader {
+        
+        RewritingLoader() {
+            super(ClassRewriterTest.class.getClassLoader());
+        }
+        
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(Sample.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> type = findLoadedClass(name);
+                if (type == null) {
+                    byte[] bytes = ClassRewriter.transform(originalBytes(name));
+                    type = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(type);
+                }
+                return type;
+            }
+        }
+    }
+    
+    private RewritingLoader loader;
+    
+    @BeforeEach
+    void setUp() {
+        loader = new RewritingLoader();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        VirtualClock.setPaused(false);
+        VirtualClock.setSpeed(VirtualClock.MIN_SPEED);
+        GameScheduler.getShared().unregister(loader);
+    }
+    
+    @Test
+    void rewrittenClassesLoadAndVerify() throws Exception {
+        // Initializing links the class, which runs the verifier over every method
+        Class<?> sample = Class.forName(Sample.class.getName(), true, loader);
+        Class<?> tick = Class.forName(Sample.Tick.class.getName(), true, loader);
+        assertNotSame(Sample.class, sample);
+        assertSame(loader, tick.getClassLoader());
+    }
+    
+    @Test
+    void timeCallsFollowTheVirtualClock() throws Exception {
+        Method nanoTime = sample().getMethod("nanoTime");
+        Method currentTimeMillis = sample().getMethod("currentTimeMillis");
+        
+        VirtualClock.setPaused(true);
+        long frozenNanos = (long) nanoTime.invoke(null);
+        long frozenMillis = (long) currentTimeMillis.invoke(null);
+        Thread.sleep(20);
+        assertEquals(frozenNanos, (long) nanoTime.invoke(null));
+        assertEquals(frozenMillis, (long) currentTimeMillis.invoke(null));
+        
+        VirtualClock.setPaused(false);
+        Thread.sleep(20);
+        assertTrue((long) nanoTime.invoke(null) > frozenNanos);
+    }
+    
+    @Test
+    void sleepAfterTableSwitchIsScaled() throws Exception {
+        Method method = sample().getMethod("sleepAfterTableSwitch", int.class, long.class);
+        VirtualClock.setSpeed(VirtualClock.MAX_SPEED);
+        
+        long start = System.nanoTime();
+        assertEquals(12, method.invoke(null, 2, 800L));
+        assertEquals(-1, method.invoke(null, 9, 0L));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsedMs < 500, "800ms sleep at 8x took " + elapsedMs + "ms");
+    }
+    
+    @Test
+    void waitAfterLookupSwitchIsScaled() throws Exception {
+        Method method = sample().getMethod("waitAfterLookupSwitch", int.class, long.class);
+        VirtualClock.setSpeed(VirtualClock.MAX_SPEED);
+        
+        long start = System.nanoTime();
+        assertEquals(2, method.invoke(null, 700, 800L));
+        assertEquals(-1, method.invoke(null, 8, 1L));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsedMs < 500, "800ms wait at 8x took " + elapsedMs + "ms");
+    }
+    
+    @Test
+    void timersAndTasksMoveOntoTheScheduler() throws Exception {
+        Timer timer = (Timer) sample().getMethod("newTimer").invoke(null);
+        assertSame(GameTimer.class, timer.getClass());
+        
+        CountDownLatch ran = new CountDownLatch(1);
+        TimerTask task = (TimerTask) sample().getMethod("newTick", CountDownLatch.class).invoke(null, ran);
+        assertSame(GameTimerTask.class, task.getClass().getSuperclass());
+        
+        timer.schedule(task, 10);
+        assertTrue(ran.await(5, TimeUnit.SECONDS), "Rewritten task never ran");
+        timer.cancel();
+    }
+    
+    @Test
+    void threadsBecomeGameThreads() throws Exception {
+        Thread thread = (Thread) sample().getMethod("newThread", Runnable.class).invoke(null, (Runnable) () -> { });
+        assertSame(GameThread.class, thread.getClass());
+    }
+    
+    private Class<?> sample() throws ClassNotFoundException {
+        return Class.forName(Sample.class.getName(), true, loader);
+    }
+    
+    private static byte[] originalBytes(String name) throws ClassNotFoundException {
+        String path = name.replace('.', '/') + ".class";
+        try (InputStream in = ClassRewriterTest.class.getClassLoader().getResourceAsStream(path)) {
+            if (in == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+}